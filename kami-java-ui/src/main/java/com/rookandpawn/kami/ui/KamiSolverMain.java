@@ -20,6 +20,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.SubscriberExceptionContext;
 import com.google.common.eventbus.SubscriberExceptionHandler;
 import com.rookandpawn.kami.KamiSolverPresenter;
+import com.rookandpawn.kami.solver.SolutionCache;
 
 /**
  *
@@ -296,6 +297,20 @@ public class KamiSolverMain extends javax.swing.JFrame
         KamiSolverPresenter presenter = new KamiSolverPresenter();
         KamiSolverMain view = new KamiSolverMain();
 
+        File cacheDir = new File(System.getProperty("user.home")
+            , ".kami-solver");
+
+        try {
+          cacheDir.mkdirs();
+          presenter.setSolutionCache(new SolutionCache(
+              new File(cacheDir, "solutions.cache")));
+        }
+        catch (IOException ex) {
+          java.util.logging.Logger.getLogger(KamiSolverMain.class.getName())
+              .log(java.util.logging.Level.WARNING
+                  , "Solving without a solution cache", ex);
+        }
+
         EventBus eventBus
             = new AsyncEventBus(Executors.newSingleThreadExecutor(), new SubscriberExceptionHandler() {
           @Override
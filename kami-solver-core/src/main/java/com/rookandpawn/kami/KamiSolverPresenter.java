@@ -1,11 +1,14 @@
 package com.rookandpawn.kami;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Optional;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.rookandpawn.kami.event.ImageSelectedEvent;
 import com.rookandpawn.kami.event.StartSolverEvent;
@@ -13,8 +16,12 @@ import com.rookandpawn.kami.parser.ParseException;
 import com.rookandpawn.kami.parser.PuzzleContext;
 import com.rookandpawn.kami.parser.PuzzleParser;
 import com.rookandpawn.kami.post.SolutionGeometryMaker;
+import com.rookandpawn.kami.solver.CancellationToken;
 import com.rookandpawn.kami.solver.Move;
 import com.rookandpawn.kami.solver.Search;
+import com.rookandpawn.kami.solver.SearchLimitException;
+import com.rookandpawn.kami.solver.SolutionCache;
+import com.rookandpawn.kami.solver.SolverEngine;
 import com.rookandpawn.kami.ui.KamiImage;
 import com.rookandpawn.kami.ui.KamiSolverView;
 import com.rookandpawn.kami.ui.PaletteList;
@@ -36,6 +43,39 @@ public class KamiSolverPresenter {
   private final SolutionGeometryMaker solutionGeometryMaker
       = new SolutionGeometryMaker();
 
+  /**
+   * Solves run here so the event bus stays free to deliver new images and
+   * solve requests that cancel the running solve
+   */
+  private final ExecutorService solverExecutor
+      = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("kami-solver-%d")
+          .setDaemon(true)
+          .build());
+
+  private volatile CancellationToken currentSolve = new CancellationToken();
+
+  private SolutionCache solutionCache;
+
+  private SolverEngine engine = SolverEngine.DUMB;
+
+  /**
+   * @param solutionCache cache for solves to check and record their results
+   *        in or null to always search
+   */
+  public void setSolutionCache(SolutionCache solutionCache) {
+    this.solutionCache = solutionCache;
+  }
+
+  /**
+   * @param engine engine to solve each connected part of the puzzle with.
+   *        EXACT finds the shortest solution of any shape, so the chosen
+   *        solution length only caps the search
+   */
+  public void setSolverEngine(SolverEngine engine) {
+    this.engine = engine;
+  }
+
   public void bind(KamiSolverView view, EventBus eventBus) {
     this.view = view;
     this.eventPump = new EventPump(view);
@@ -67,6 +107,8 @@ public class KamiSolverPresenter {
 
   @Subscribe
   public void onImageSelected(ImageSelectedEvent e) {
+    currentSolve.cancel();
+
     currentImage = e.getImage();
     view.showImage(currentImage);
 
@@ -84,13 +126,31 @@ public class KamiSolverPresenter {
       return;
     }
 
+    currentSolve.cancel();
+
+    CancellationToken token = new CancellationToken();
+    KamiImage image = currentImage;
+
+    currentSolve = token;
+
+    solverExecutor.execute(() -> solve(image, e.getSolutionLength(), token));
+  }
+
+  private void solve(KamiImage image
+      , int solutionLength
+      , CancellationToken token) {
+
+    if (token.isCancelled()) {
+      return;
+    }
+
     view.indicateWorking();
     eventPump.setStatus("Detecting Puzzle");
 
     PuzzleContext puzzle;
 
     try {
-      puzzle = puzzleParser.parse(currentImage, eventPump);
+      puzzle = puzzleParser.parse(image, eventPump);
     }
     catch (ParseException ex) {
       eventPump.error("Failed to detect puzzle :( -> " + ex.getMessage());
@@ -101,11 +161,33 @@ public class KamiSolverPresenter {
       return;
     }
 
+    // Parsing can't be cancelled, so a new image may have come in meanwhile
+    if (token.isCancelled()) {
+      return;
+    }
+
     eventPump.setStatus("Solving");
 
-    Search solver = new Search(puzzle.getGraph());
+    Search solver = new Search(puzzle.getGraph()
+        , engine
+        , null
+        , solutionCache);
+
+    Optional<List<Move>> result;
 
-    Optional<List<Move>> result = solver.go(e.getSolutionLength());
+    try {
+      result = solver.go(solutionLength, token);
+    }
+    catch (SearchLimitException ex) {
+      eventPump.error("Search gave up :( -> " + ex.getMessage());
+      return;
+    }
+
+    // Even a solution belongs to the old puzzle and must not be drawn over
+    // the image that replaced it
+    if (token.isCancelled()) {
+      return;
+    }
 
     if (result.isPresent()) {
       eventPump.setStatus("Solution Found");
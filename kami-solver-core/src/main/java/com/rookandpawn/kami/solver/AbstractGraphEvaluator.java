@@ -0,0 +1,175 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Base for evaluators that can apply a color change to the region around the
+ * start node and take it back again.  That lets every color sequence for a
+ * start node be searched depth first, so sequences that share a prefix only
+ * play it out once
+ */
+abstract class AbstractGraphEvaluator implements GraphEvaluator {
+
+  protected final Graph g;
+  protected final int colorCount;
+  protected final short[] colorCounts;
+  protected final short[] originalColorCounts;
+  protected final int actualNodeCount;
+  protected final int startingActiveColorCount;
+
+  private byte[] solution;
+  private byte finalColor;
+  private BooleanSupplier abandon;
+
+  protected AbstractGraphEvaluator(Graph g) {
+    this.g = g;
+    this.colorCount = g.getColors().length;
+    this.colorCounts = new short[colorCount];
+    this.originalColorCounts = new short[colorCount];
+
+    for (byte color : g.getNodes()) {
+      if (color >= 0) {
+        originalColorCounts[color]++;
+      }
+    }
+
+    int activeColorCount = 0;
+
+    for (short count : originalColorCounts) {
+      if (count > 0) {
+        activeColorCount++;
+      }
+    }
+
+    this.startingActiveColorCount = activeColorCount;
+    this.actualNodeCount = g.getActualNodeCount();
+  }
+
+  /**
+   * Put the graph back in its original colors with the region holding just
+   * the given node
+   * @param node start node
+   * @param maxDepth most color changes that will be applied before they are
+   *        taken back
+   */
+  protected abstract void start(short node, int maxDepth);
+
+  /**
+   * Change the region around the start node, which is all of the given
+   * previous color, to the given color
+   * @param prevColor
+   * @param color
+   * @return the number of nodes changed
+   */
+  protected abstract int changeRegionColor(byte prevColor, byte color);
+
+  /**
+   * Take back the most recent color change that has not been taken back yet
+   */
+  protected abstract void undoRegionColor();
+
+  @Override
+  public boolean findSolution(short node
+      , byte[] solution
+      , byte finalColor
+      , BooleanSupplier abandon) {
+
+    this.solution = solution;
+    this.finalColor = finalColor;
+    this.abandon = abandon;
+
+    start(node, solution.length);
+
+    try {
+      return search(0, g.getNodes()[node], 0);
+    }
+    finally {
+      this.abandon = null;
+      this.solution = null;
+    }
+  }
+
+  /**
+   * Try every color for the move at the given depth.  The checks are the same
+   * ones evaluate makes and are made in the same order, so the first solution
+   * found is the one repeated calls to evaluate would find
+   * @param depth
+   * @param prevColor color of the region before this move
+   * @param prevNodesChanged size of the region before the previous move
+   * @return true if the solution holds a working sequence
+   */
+  private boolean search(int depth, byte prevColor, int prevNodesChanged) {
+    if (abandon.getAsBoolean()) {
+      return false;
+    }
+
+    int activeColorCount = 0;
+
+    for (short count : colorCounts) {
+      if (count > 0) {
+        activeColorCount++;
+      }
+    }
+
+    if (depth == solution.length) {
+      return activeColorCount == 1;
+    }
+
+    int movesLeft = solution.length - depth;
+
+    if (movesLeft < activeColorCount - 1) {
+      return false;
+    }
+
+    // Every offset gives the final color on the last move, so only one needs
+    // to be tried
+    boolean forced = finalColor >= 0 && movesLeft == 1;
+    boolean triedMissingColor = false;
+
+    for (byte offset = 0; offset < colorCount - 1; offset++) {
+      byte color = forced ? finalColor : (byte)(1 + prevColor + offset);
+
+      if (color >= colorCount) {
+        color -= colorCount;
+      }
+
+      if (color == prevColor && actualNodeCount > 1) {
+        return false;
+      }
+
+      // Colors no node has, other than the final color, can trade places
+      // without changing anything, so a sequence using the second one works
+      // only if the same sequence using the first one does
+      if (!forced && colorCounts[color] == 0 && color != finalColor) {
+        if (triedMissingColor) {
+          continue;
+        }
+
+        triedMissingColor = true;
+      }
+
+      int nodesChanged = changeRegionColor(prevColor, color);
+
+      // A move that did not grow the region was wasted
+      if (depth > 0 && nodesChanged == prevNodesChanged) {
+        undoRegionColor();
+        return false;
+      }
+
+      solution[depth] = offset;
+
+      if (search(depth + 1, color, nodesChanged)) {
+        return true;
+      }
+
+      undoRegionColor();
+
+      if (forced) {
+        return false;
+      }
+    }
+
+    return false;
+  }
+
+}
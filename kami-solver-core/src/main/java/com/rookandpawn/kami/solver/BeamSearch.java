@@ -0,0 +1,269 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Quick search for a solution that is short but not necessarily the
+ * shortest.  Each step looks at every move that merges a region with a
+ * neighbor on each of the graphs kept from the step before, makes the graphs
+ * for the moves that remove the most colors and regions, and keeps only the
+ * best few of those.  A graph is better when its lower bound is smaller,
+ * which counts the colors left and how far apart the regions are, then when
+ * the region just changed is more central, then when it has fewer and so
+ * larger regions.  The graph shrinks with every move, so there is always an
+ * answer after at most one step per node
+ */
+public class BeamSearch {
+
+  public static final int DEFAULT_BEAM_WIDTH = 16;
+
+  /**
+   * Number of graphs made and scored at each step for each one kept
+   */
+  private static final int PREVIEW_FACTOR = 4;
+
+  /**
+   * A graph reached by the search and the moves that led to it
+   */
+  private static class Candidate {
+
+    private final Graph graph;
+    private final Candidate parent;
+    private final Move move;
+    private final long score;
+
+    public Candidate(Graph graph, Candidate parent, Move move, long score) {
+      this.graph = graph;
+      this.parent = parent;
+      this.move = move;
+      this.score = score;
+    }
+  }
+
+  private final Graph graph;
+  private final int beamWidth;
+
+  public BeamSearch(Graph graph) {
+    this(graph, DEFAULT_BEAM_WIDTH);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param beamWidth number of graphs to keep after each step
+   */
+  public BeamSearch(Graph graph, int beamWidth) {
+    this.graph = graph;
+    this.beamWidth = beamWidth;
+  }
+
+  public List<Move> go() {
+    return go((byte)-1);
+  }
+
+  /**
+   * @param finalColor color the solution has to end with or -1 for any
+   * @return a solution of the graph
+   */
+  public List<Move> go(byte finalColor) {
+    List<Candidate> beam = Lists.newArrayList();
+
+    beam.add(new Candidate(graph, null, null, 0));
+
+    while (true) {
+      for (Candidate candidate : beam) {
+        if (LowerBounds.getColorBound(candidate.graph, (byte)-1) == 0) {
+          return finish(candidate, finalColor);
+        }
+      }
+
+      List<long[]> moves = Lists.newArrayList();
+
+      for (int i = 0; i < beam.size(); i++) {
+        addMoves(beam.get(i), i, moves);
+      }
+
+      if (moves.isEmpty()) {
+        // Only regions without neighbors are left
+        return finish(beam.get(0), finalColor);
+      }
+
+      // Only the moves that look best at a glance are worth the time it takes
+      // to make their graphs and score them
+      Collections.sort(moves, (m1, m2) -> Long.compare(m1[0], m2[0]));
+
+      // Different moves can lead to the same graph, so keep each only once
+      Map<Long,Candidate> children = Maps.newHashMap();
+
+      for (int i = 0; i < moves.size() && i < beamWidth * PREVIEW_FACTOR; i++) {
+        Candidate parent = beam.get((int)moves.get(i)[1]);
+        short node = (short)moves.get(i)[2];
+        byte color = (byte)moves.get(i)[3];
+        Graph child = parent.graph.changeNodeColor(node, color);
+        Long hash = child.getZobristHash();
+
+        if (!children.containsKey(hash)) {
+          children.put(hash, new Candidate(child, parent
+              , parent.graph.createMove(node, color)
+              , score(child, node, finalColor)));
+        }
+      }
+
+      beam = Lists.newArrayList(children.values());
+
+      Collections.sort(beam, (c1, c2) -> Long.compare(c1.score, c2.score));
+
+      if (beam.size() > beamWidth) {
+        beam = Lists.newArrayList(beam.subList(0, beamWidth));
+      }
+    }
+  }
+
+  /**
+   * Add every move that merges a region of the given candidate's graph with
+   * its neighbors of one color.  Each move is its quick score, smaller being
+   * better, followed by the candidate's place in the beam, the node and the
+   * color.  The quick score prefers moves that take a color off the board,
+   * then moves that merge more regions
+   */
+  private static void addMoves(Candidate candidate
+      , int index
+      , List<long[]> moves) {
+    Graph graph = candidate.graph;
+    byte[] nodes = graph.getNodes();
+    int[] colorCounts = new int[graph.getColors().length];
+    int[] neighborCounts = new int[colorCounts.length];
+
+    for (byte color : nodes) {
+      if (color >= 0) {
+        colorCounts[color]++;
+      }
+    }
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (nodes[node] < 0) {
+        continue;
+      }
+
+      Arrays.fill(neighborCounts, 0);
+
+      for (short neighbor : graph.getEdges()[node]) {
+        neighborCounts[nodes[neighbor]]++;
+      }
+
+      for (byte color = 0; color < neighborCounts.length; color++) {
+        int count = neighborCounts[color];
+
+        if (count == 0) {
+          continue;
+        }
+
+        // A color goes when all its regions are merged, and the region's own
+        // color goes when it was the last of it
+        int removedColors = (count == colorCounts[color] ? 1 : 0)
+            + (colorCounts[nodes[node]] == 1 ? 1 : 0);
+
+        moves.add(new long[] {
+          -((long)removedColors << 32 | count), index, node, color
+        });
+      }
+    }
+  }
+
+  /**
+   * @param graph
+   * @param node region that was just changed
+   * @param finalColor
+   * @return the score of the given graph, smaller being better
+   */
+  private static long score(Graph graph, short node, byte finalColor) {
+    return (long)LowerBounds.forGraph(graph, finalColor) << 32
+        | (long)getEccentricity(graph, node) << 16
+        | graph.getActualNodeCount();
+  }
+
+  /**
+   * @param graph
+   * @param start
+   * @return the distance from the given node to the farthest node it is
+   * connected to
+   */
+  private static int getEccentricity(Graph graph, short start) {
+    short[][] edges = graph.getEdges();
+    int[] dist = new int[edges.length];
+    short[] queue = new short[edges.length];
+    int head = 0;
+    int tail = 0;
+    int result = 0;
+
+    Arrays.fill(dist, -1);
+    dist[start] = 0;
+    queue[tail++] = start;
+
+    while (head < tail) {
+      short curr = queue[head++];
+
+      result = dist[curr];
+
+      for (short neighbor : edges[curr]) {
+        if (dist[neighbor] < 0) {
+          dist[neighbor] = dist[curr] + 1;
+          queue[tail++] = neighbor;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @param candidate candidate whose regions have no neighbors of another
+   *        color left
+   * @param finalColor
+   * @return the moves that led to the candidate followed by those that give
+   * every region left the same color
+   */
+  private List<Move> finish(Candidate candidate, byte finalColor) {
+    List<Move> result = Lists.newArrayList();
+
+    for (Candidate curr = candidate; curr.parent != null; curr = curr.parent) {
+      result.add(curr.move);
+    }
+
+    Collections.reverse(result);
+
+    Graph last = candidate.graph;
+    byte[] nodes = last.getNodes();
+
+    if (finalColor < 0) {
+      finalColor = getMostCommonColor(nodes, last.getColors().length);
+    }
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (nodes[node] >= 0 && nodes[node] != finalColor) {
+        result.add(last.createMove(node, finalColor));
+      }
+    }
+
+    return result;
+  }
+
+  private static byte getMostCommonColor(byte[] nodes, int colorCount) {
+    int[] counts = new int[colorCount];
+    byte result = 0;
+
+    for (byte color : nodes) {
+      if (color >= 0 && ++counts[color] > counts[result]) {
+        result = color;
+      }
+    }
+
+    return result;
+  }
+
+}
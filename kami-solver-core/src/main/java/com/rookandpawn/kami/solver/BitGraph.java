@@ -0,0 +1,233 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * Implementation of a kami graph for small graphs where every set of nodes is
+ * a bit mask, so flooding a region is done a word at a time instead of a node
+ * at a time
+ */
+public class BitGraph extends AbstractGraphEvaluator {
+
+  /**
+   * Largest graph (by node id) that will be evaluated with bit masks
+   */
+  public static final int MAX_NODE_COUNT = 256;
+
+  private final int wordCount;
+  private final long[][] edges;
+  private final long[][] originalColorMasks;
+  private final long[][] colorMasks;
+  private final long[] region;
+  private final long[] frontier;
+  private final long[] next;
+
+  // Region before each applied color change so it can be changed back
+  private long[][] savedRegions;
+  private byte[] changePrevColors;
+  private byte[] changeColors;
+  private short[] changeCounts;
+  private int changeDepth;
+
+  public BitGraph(Graph g) {
+    super(g);
+    this.edges = g.getEdgeMasks();
+    this.wordCount = Bits.wordCount(g.getNodes().length);
+    this.originalColorMasks = new long[colorCount][wordCount];
+    this.colorMasks = new long[colorCount][wordCount];
+    this.region = new long[wordCount];
+    this.frontier = new long[wordCount];
+    this.next = new long[wordCount];
+
+    byte[] nodes = g.getNodes();
+
+    for (short node = 0; node < nodes.length; node++) {
+      byte color = nodes[node];
+
+      if (color >= 0) {
+        Bits.set(originalColorMasks[color], node);
+      }
+    }
+  }
+
+  private void reset(short node) {
+    for (int c = 0; c < colorCount; c++) {
+      System.arraycopy(originalColorMasks[c], 0, colorMasks[c], 0, wordCount);
+    }
+
+    System.arraycopy(originalColorCounts, 0, colorCounts, 0, colorCount);
+
+    Bits.clear(region);
+    Bits.set(region, node);
+  }
+
+  /**
+   * Grow the current region to include every node of the given color that is
+   * connected to it through nodes of that color
+   * @param colorMask
+   * @return the number of nodes in the grown region
+   */
+  private int floodRegion(long[] colorMask) {
+    System.arraycopy(region, 0, frontier, 0, wordCount);
+
+    boolean grew = true;
+
+    while (grew) {
+      Bits.clear(next);
+
+      for (int w = 0; w < wordCount; w++) {
+        long word = frontier[w];
+
+        while (word != 0) {
+          int node = (w << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+
+          long[] neighbors = edges[node];
+
+          for (int nw = 0; nw < wordCount; nw++) {
+            next[nw] |= neighbors[nw];
+          }
+        }
+      }
+
+      grew = false;
+
+      for (int w = 0; w < wordCount; w++) {
+        long added = next[w] & colorMask[w] & ~region[w];
+        frontier[w] = added;
+        region[w] |= added;
+        grew = grew || added != 0;
+      }
+    }
+
+    return Bits.count(region);
+  }
+
+  @Override
+  protected void start(short node, int maxDepth) {
+    reset(node);
+
+    changeDepth = 0;
+
+    if (savedRegions == null || savedRegions.length < maxDepth) {
+      savedRegions = new long[maxDepth][wordCount];
+      changePrevColors = new byte[maxDepth];
+      changeColors = new byte[maxDepth];
+      changeCounts = new short[maxDepth];
+    }
+  }
+
+  @Override
+  protected int changeRegionColor(byte prevColor, byte color) {
+    System.arraycopy(region, 0, savedRegions[changeDepth], 0, wordCount);
+
+    long[] prevMask = colorMasks[prevColor];
+    long[] newMask = colorMasks[color];
+
+    int nodesChanged = floodRegion(prevMask);
+
+    for (int w = 0; w < wordCount; w++) {
+      prevMask[w] &= ~region[w];
+      newMask[w] |= region[w];
+    }
+
+    colorCounts[prevColor] -= nodesChanged;
+    colorCounts[color] += nodesChanged;
+
+    changePrevColors[changeDepth] = prevColor;
+    changeColors[changeDepth] = color;
+    changeCounts[changeDepth] = (short)nodesChanged;
+    changeDepth++;
+
+    return nodesChanged;
+  }
+
+  @Override
+  protected void undoRegionColor() {
+    changeDepth--;
+
+    long[] prevMask = colorMasks[changePrevColors[changeDepth]];
+    long[] newMask = colorMasks[changeColors[changeDepth]];
+
+    for (int w = 0; w < wordCount; w++) {
+      prevMask[w] |= region[w];
+      newMask[w] &= ~region[w];
+    }
+
+    colorCounts[changePrevColors[changeDepth]] += changeCounts[changeDepth];
+    colorCounts[changeColors[changeDepth]] -= changeCounts[changeDepth];
+
+    System.arraycopy(savedRegions[changeDepth], 0, region, 0, wordCount);
+  }
+
+  @Override
+  public int evaluate(short node, byte[] colorSeq, byte finalColor) {
+
+    reset(node);
+
+    byte prevColor = g.getNodes()[node];
+
+    int nodesChanged;
+    int prevNodesChanges = 0;
+
+    byte color;
+
+    int index;
+    int movesLeft = colorSeq.length;
+    int activeColorCount = startingActiveColorCount;
+
+    for (index = 0; index < colorSeq.length; index++) {
+
+      if (movesLeft < activeColorCount - 1) {
+        return index;
+      }
+
+      if (finalColor >= 0 && movesLeft == 1) {
+        color = finalColor;
+      }
+      else {
+        color = (byte)(1 + prevColor + colorSeq[index]);
+      }
+
+      if (color >= colorCount) {
+        color -= colorCount;
+      }
+
+      if (color == prevColor && actualNodeCount > 1) {
+        return index - 1;
+      }
+
+      long[] prevMask = colorMasks[prevColor];
+      long[] newMask = colorMasks[color];
+
+      nodesChanged = floodRegion(prevMask);
+
+      for (int w = 0; w < wordCount; w++) {
+        prevMask[w] &= ~region[w];
+        newMask[w] |= region[w];
+      }
+
+      colorCounts[prevColor] -= nodesChanged;
+      colorCounts[color] += nodesChanged;
+
+      if (index > 0 && nodesChanged == prevNodesChanges) {
+        return index - 1;
+      }
+
+      activeColorCount = 0;
+
+      for (short count : colorCounts) {
+        if (count > 0) {
+          activeColorCount++;
+        }
+      }
+
+      movesLeft--;
+      prevColor = color;
+      prevNodesChanges = nodesChanged;
+    }
+
+    return activeColorCount == 1
+        ? index
+        : index - (finalColor < 0 ? 1 : 2);
+  }
+
+}
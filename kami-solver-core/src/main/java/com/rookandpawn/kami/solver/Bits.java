@@ -0,0 +1,61 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * Helpers for treating arrays of longs as sets of node ids
+ */
+final class Bits {
+
+  private Bits() {}
+
+  static int wordCount(int bitCount) {
+    return (bitCount + 63) >>> 6;
+  }
+
+  static void set(long[] bits, int index) {
+    bits[index >>> 6] |= 1L << index;
+  }
+
+  static void unset(long[] bits, int index) {
+    bits[index >>> 6] &= ~(1L << index);
+  }
+
+  static boolean get(long[] bits, int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  static void clear(long[] bits) {
+    for (int w = 0; w < bits.length; w++) {
+      bits[w] = 0;
+    }
+  }
+
+  static int count(long[] bits) {
+    int result = 0;
+
+    for (long word : bits) {
+      result += Long.bitCount(word);
+    }
+
+    return result;
+  }
+
+  /**
+   * @param bits
+   * @return the indexes of all the set bits in ascending order
+   */
+  static short[] toShortArray(long[] bits) {
+    short[] result = new short[count(bits)];
+    int index = 0;
+
+    for (int w = 0; w < bits.length; w++) {
+      long word = bits[w];
+
+      while (word != 0) {
+        result[index++] = (short)((w << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,300 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Split of a graph into blocks, the largest pieces that stay connected when
+ * any one node is taken out, joined at cut nodes, whose removal leaves the
+ * graph in more than one piece.  Long thin boards are chains of dense blocks
+ * joined at single shapes.
+ * <p>
+ * A search that keeps changing the color of the region holding one start node
+ * cannot reach anything on the far side of a cut node before it has reached
+ * the cut node itself, and once it has, every color on the far side still
+ * needs a move of its own.  That gives a bound on the moves from each start
+ * node that is much better than its distance to the farthest node when a
+ * colorful block hangs off the end of a chain
+ */
+public class BlockCutTree {
+
+  private final List<short[]> blocks = Lists.newArrayList();
+  private final short[] cutNodes;
+
+  /**
+   * For each cut node, the piece each node is in once the cut node is taken
+   * out or -1 for the cut node itself and ids not in the graph
+   */
+  private final int[][] sides;
+
+  /**
+   * For each cut node, the colors in each piece left when it is taken out as
+   * a bit per color
+   */
+  private final long[][] sideColors;
+
+  public BlockCutTree(Graph graph) {
+    byte[] nodes = graph.getNodes();
+    short[][] edges = graph.getEdges();
+    int nodeCount = nodes.length;
+
+    boolean[] isCut = findBlocks(nodes, edges);
+    short[] cuts = new short[nodeCount];
+    int cutCount = 0;
+
+    // Colors are tracked as bits of a long
+    if (graph.getColors().length <= Long.SIZE) {
+      for (short node = 0; node < nodeCount; node++) {
+        if (isCut[node]) {
+          cuts[cutCount++] = node;
+        }
+      }
+    }
+
+    this.cutNodes = Arrays.copyOf(cuts, cutCount);
+    this.sides = new int[cutCount][];
+    this.sideColors = new long[cutCount][];
+
+    short[] queue = new short[nodeCount];
+
+    for (int i = 0; i < cutCount; i++) {
+      int[] side = new int[nodeCount];
+      long[] colors = new long[edges[cutNodes[i]].length];
+      int sideCount = 0;
+
+      Arrays.fill(side, -1);
+
+      for (short start : edges[cutNodes[i]]) {
+        if (side[start] >= 0) {
+          continue;
+        }
+
+        int head = 0;
+        int tail = 0;
+
+        queue[tail++] = start;
+        side[start] = sideCount;
+
+        while (head < tail) {
+          short node = queue[head++];
+
+          colors[sideCount] |= 1L << nodes[node];
+
+          for (short n : edges[node]) {
+            if (n != cutNodes[i] && side[n] < 0) {
+              side[n] = sideCount;
+              queue[tail++] = n;
+            }
+          }
+        }
+
+        sideCount++;
+      }
+
+      sides[i] = side;
+      sideColors[i] = Arrays.copyOf(colors, sideCount);
+    }
+  }
+
+  /**
+   * Find the blocks and cut nodes with Tarjan's depth first search, keeping
+   * the path on a stack instead of recursing
+   * @param nodes
+   * @param edges
+   * @return true for each cut node
+   */
+  private boolean[] findBlocks(byte[] nodes, short[][] edges) {
+    int nodeCount = nodes.length;
+    boolean[] result = new boolean[nodeCount];
+
+    // Order each node was reached in starting from 1, and the earliest node
+    // reachable from its subtree with one edge back
+    int[] order = new int[nodeCount];
+    int[] low = new int[nodeCount];
+    int[] nextEdge = new int[nodeCount];
+    short[] parents = new short[nodeCount];
+
+    short[] path = new short[nodeCount];
+    short[] edgeStack = new short[nodeCount * 2];
+    int[] marks = new int[nodeCount];
+    int edgeCount = 0;
+    int time = 0;
+
+    for (short root = 0; root < nodeCount; root++) {
+      if (nodes[root] < 0 || order[root] > 0) {
+        continue;
+      }
+
+      if (edges[root].length == 0) {
+        order[root] = ++time;
+        blocks.add(new short[] { root });
+        continue;
+      }
+
+      int depth = 0;
+      int rootChildren = 0;
+
+      path[depth++] = root;
+      parents[root] = -1;
+      order[root] = low[root] = ++time;
+
+      while (depth > 0) {
+        short node = path[depth - 1];
+
+        if (nextEdge[node] < edges[node].length) {
+          short n = edges[node][nextEdge[node]++];
+
+          if (n == parents[node]) {
+            continue;
+          }
+
+          if (order[n] == 0) {
+            if (edgeCount + 2 > edgeStack.length) {
+              edgeStack = Arrays.copyOf(edgeStack, edgeStack.length * 2);
+            }
+
+            edgeStack[edgeCount++] = node;
+            edgeStack[edgeCount++] = n;
+            parents[n] = node;
+            order[n] = low[n] = ++time;
+            path[depth++] = n;
+
+            if (node == root) {
+              rootChildren++;
+            }
+          }
+          else if (order[n] < order[node]) {
+            if (edgeCount + 2 > edgeStack.length) {
+              edgeStack = Arrays.copyOf(edgeStack, edgeStack.length * 2);
+            }
+
+            edgeStack[edgeCount++] = node;
+            edgeStack[edgeCount++] = n;
+            low[node] = Math.min(low[node], order[n]);
+          }
+
+          continue;
+        }
+
+        depth--;
+
+        short parent = parents[node];
+
+        if (parent < 0) {
+          continue;
+        }
+
+        low[parent] = Math.min(low[parent], low[node]);
+
+        if (low[node] < order[parent]) {
+          continue;
+        }
+
+        // Nothing below the node reaches above its parent, so the edges
+        // since the parent's edge to it make up a block
+        if (parent != root || rootChildren > 1) {
+          result[parent] = true;
+        }
+
+        List<Short> block = Lists.newArrayList();
+        int mark = blocks.size() + 1;
+
+        while (edgeCount > 0) {
+          short to = edgeStack[--edgeCount];
+          short from = edgeStack[--edgeCount];
+
+          for (short end : new short[] { from, to }) {
+            if (marks[end] != mark) {
+              marks[end] = mark;
+              block.add(end);
+            }
+          }
+
+          if (from == parent && to == node) {
+            break;
+          }
+        }
+
+        short[] blockNodes = new short[block.size()];
+
+        for (int i = 0; i < blockNodes.length; i++) {
+          blockNodes[i] = block.get(i);
+        }
+
+        blocks.add(blockNodes);
+      }
+
+      // The root is only a cut node if it has more than one child
+      if (rootChildren > 1) {
+        result[root] = true;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the nodes of each block.  Cut nodes are in more than one block
+   */
+  public List<short[]> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * @return the cut nodes in order of their ids
+   */
+  public short[] getCutNodes() {
+    return cutNodes;
+  }
+
+  /**
+   * @param node
+   * @return true if taking out the given node would split its graph
+   */
+  public boolean isCutNode(short node) {
+    return Arrays.binarySearch(cutNodes, node) >= 0;
+  }
+
+  /**
+   * @param startNode
+   * @param paths paths of the graph
+   * @param finalColor color the solution ends with or -1 for any
+   * @return the fewest moves a solution that changes the color of the region
+   * holding the given node on every move can have.  Reaching a cut node takes
+   * at least its distance, after which every color beyond it takes a move,
+   * and a final color that is not one of those takes one more
+   */
+  public int getLowerBound(short startNode, PathSet paths, byte finalColor) {
+    int result = 0;
+
+    for (int i = 0; i < cutNodes.length; i++) {
+      int startSide = sides[i][startNode];
+
+      if (startSide < 0) {
+        continue;
+      }
+
+      long colors = 0;
+
+      for (int side = 0; side < sideColors[i].length; side++) {
+        if (side != startSide) {
+          colors |= sideColors[i][side];
+        }
+      }
+
+      int bound = paths.getDistance(startNode, cutNodes[i])
+          + Long.bitCount(colors);
+
+      if (finalColor >= 0 && (colors & (1L << finalColor)) == 0) {
+        bound++;
+      }
+
+      result = Math.max(result, bound);
+    }
+
+    return result;
+  }
+
+}
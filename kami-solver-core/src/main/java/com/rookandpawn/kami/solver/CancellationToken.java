@@ -0,0 +1,71 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared flag the solvers check while they work, so a search can be stopped
+ * from another thread or when a deadline passes
+ */
+public class CancellationToken {
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return a token that cancels itself once the given time has passed
+   */
+  public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+    return new CancellationToken(null, true
+        , System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  private final CancellationToken parent;
+  private final boolean hasDeadline;
+  private final long deadline;
+
+  private volatile boolean cancelled;
+
+  /**
+   * Create a token that is only cancelled by calling cancel
+   */
+  public CancellationToken() {
+    this(null, false, 0);
+  }
+
+  private CancellationToken(CancellationToken parent
+      , boolean hasDeadline
+      , long deadline) {
+    this.parent = parent;
+    this.hasDeadline = hasDeadline;
+    this.deadline = deadline;
+  }
+
+  /**
+   * @return a token that is cancelled along with this one, but that can also
+   * be cancelled on its own to stop one part of a search
+   */
+  public CancellationToken createChild() {
+    return new CancellationToken(this, false, 0);
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return true if cancel was called, the deadline has passed or the token
+   * this one was created from is cancelled
+   */
+  public boolean isCancelled() {
+    if (cancelled) {
+      return true;
+    }
+
+    if ((hasDeadline && System.nanoTime() - deadline >= 0)
+        || (parent != null && parent.isCancelled())) {
+      cancelled = true;
+    }
+
+    return cancelled;
+  }
+
+}
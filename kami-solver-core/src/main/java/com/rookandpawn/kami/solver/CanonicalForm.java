@@ -0,0 +1,501 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+
+/**
+ * Labelling of a graph's nodes that depends only on its shape and colors, not
+ * on its node ids.  Two graphs have equal canonical forms exactly when they
+ * are the same graph with the nodes numbered differently, and the forms line
+ * up the nodes that correspond.
+ * <p>
+ * Nodes are first split into cells by color refinement: nodes stay together
+ * only while they have the same color and the same number of neighbors in
+ * each cell.  When that leaves cells with more than one node, each node of
+ * the first such cell is tried as if it were alone in its own cell, and the
+ * labelling that gives the smallest encoding wins.  Trying them all is slow
+ * for very symmetric graphs, so after enough labellings the best so far is
+ * used.  The encoding is the relabelled graph itself, so equal forms always
+ * mean the same graph, but graphs past that limit may miss out on being
+ * recognized as the same.
+ * <p>
+ * The form can also ignore which color is which, so that graphs that only
+ * differ by swapping colors around have the same form.  Each color then
+ * becomes an extra node joined to the nodes of that color, and the colors
+ * are labelled along with the nodes
+ */
+public final class CanonicalForm {
+
+  /**
+   * Most complete labellings to compare before settling on the best so far
+   */
+  private static final int MAX_LEAF_COUNT = 256;
+
+  /**
+   * Create the canonical form of the given graph
+   * @param graph
+   * @return
+   */
+  public static CanonicalForm of(Graph graph) {
+    return new Builder(graph, false, null, -1).build();
+  }
+
+  /**
+   * Create the canonical form of the given graph with its colors replaced
+   * @param graph
+   * @param colorMap new color for each color
+   * @return
+   */
+  static CanonicalForm of(Graph graph, byte[] colorMap) {
+    return new Builder(graph, false, colorMap, -1).build();
+  }
+
+  /**
+   * Create the canonical form of the given graph with one node set apart
+   * from the others.  The forms for two nodes are equal exactly when some
+   * symmetry of the graph takes one node to the other, and mapTo then gives
+   * that symmetry
+   * @param graph
+   * @param markedNode
+   * @return
+   */
+  static CanonicalForm of(Graph graph, short markedNode) {
+    return new Builder(graph, false, null, markedNode).build();
+  }
+
+  /**
+   * Split the nodes of the given graph by color refinement alone.  Nodes that
+   * a symmetry of the graph takes to each other always share a cell
+   * @param graph
+   * @return the cell of each node id, or -1 for ids that are not in the graph
+   */
+  static int[] refineCells(Graph graph) {
+    Builder builder = new Builder(graph, false, null, -1);
+    int[] cells = builder.refine(builder.initialCells);
+    int[] result = new int[graph.getNodes().length];
+
+    Arrays.fill(result, -1);
+
+    for (int node = 0; node < cells.length; node++) {
+      result[builder.compact.getOriginalId(node)] = cells[node];
+    }
+
+    return result;
+  }
+
+  /**
+   * Create the canonical form of the given graph that only depends on which
+   * nodes share a color and not on what the colors are
+   * @param graph
+   * @return
+   */
+  public static CanonicalForm ofColorClasses(Graph graph) {
+    return new Builder(graph, true, null, -1).build();
+  }
+
+  private final int[] code;
+  private final short[] order;
+  private final byte[] colorOrder;
+  private final int hash;
+
+  private CanonicalForm(int[] code, short[] order, byte[] colorOrder) {
+    this.code = code;
+    this.order = order;
+    this.colorOrder = colorOrder;
+    this.hash = Arrays.hashCode(code);
+  }
+
+  /**
+   * @return the node ids of the graph in canonical order
+   */
+  public short[] getOrder() {
+    return order;
+  }
+
+  /**
+   * @return the colors of the graph in canonical order for forms that ignore
+   * which color is which or else null.  The colors no node has come last in
+   * the order of their indexes, since any of them can stand in for another
+   */
+  public byte[] getColorOrder() {
+    return colorOrder;
+  }
+
+  /**
+   * @return the encoding of the relabelled graph
+   */
+  int[] getCode() {
+    return code;
+  }
+
+  /**
+   * Map the nodes of this form's graph to the nodes of an equal form's graph
+   * @param other form equal to this one
+   * @param nodeCount length of this form's graph's node array
+   * @return the node in the other graph for each node id in this graph or -1
+   * for ids that are not in this graph
+   */
+  public short[] mapTo(CanonicalForm other, int nodeCount) {
+    if (!equals(other)) {
+      throw new IllegalArgumentException("Graphs are not the same");
+    }
+
+    short[] result = new short[nodeCount];
+
+    Arrays.fill(result, (short)-1);
+
+    for (int i = 0; i < order.length; i++) {
+      result[order[i]] = other.order[i];
+    }
+
+    return result;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+
+    final CanonicalForm other = (CanonicalForm) obj;
+
+    return hash == other.hash && Arrays.equals(code, other.code);
+  }
+
+  /**
+   * Search for the labelling with the smallest encoding
+   */
+  private static final class Builder {
+
+    private final CompactGraph compact;
+    private final boolean colorClasses;
+    private final int colorCount;
+    private final int graphNodeCount;
+
+    /**
+     * Nodes to label, which are the graph's nodes followed by a node for each
+     * color present when ignoring which color is which
+     */
+    private final int nodeCount;
+    private final int[] offsets;
+    private final short[] targets;
+    private final int[] initialCells;
+    private final byte[] classColors;
+
+    private int[] bestCode;
+    private int[] bestCells;
+    private int leafCount;
+
+    /**
+     * @param graph
+     * @param colorClasses true to ignore which color is which
+     * @param colorMap new color for each color or null to keep them
+     * @param markedNode node to set apart in a cell of its own or -1
+     */
+    Builder(Graph graph
+        , boolean colorClasses
+        , byte[] colorMap
+        , int markedNode) {
+      this.compact = new CompactGraph(graph);
+      this.colorClasses = colorClasses;
+      this.colorCount = graph.getColors().length;
+      this.graphNodeCount = compact.getNodeCount();
+
+      byte[] colors = compact.getColors();
+
+      if (!colorClasses) {
+        this.nodeCount = graphNodeCount;
+        this.offsets = compact.getOffsets();
+        this.targets = compact.getTargets();
+        this.initialCells = new int[nodeCount];
+        this.classColors = null;
+
+        for (int node = 0; node < nodeCount; node++) {
+          initialCells[node] = colorMap == null
+              ? colors[node]
+              : colorMap[colors[node]];
+        }
+
+        if (markedNode >= 0) {
+          initialCells[compact.getCompactId((short)markedNode)] = colorCount;
+        }
+
+        return;
+      }
+
+      // Give each present color a node after the graph's nodes
+      int[] classNodes = new int[colorCount];
+      int[] classSizes = new int[colorCount];
+      int classCount = 0;
+
+      Arrays.fill(classNodes, -1);
+
+      for (byte color : colors) {
+        if (classNodes[color] < 0) {
+          classNodes[color] = graphNodeCount + classCount++;
+        }
+
+        classSizes[color]++;
+      }
+
+      this.nodeCount = graphNodeCount + classCount;
+      this.classColors = new byte[classCount];
+      this.initialCells = new int[nodeCount];
+      this.offsets = new int[nodeCount + 1];
+      this.targets = new short[compact.getTargets().length
+          + graphNodeCount * 2];
+
+      for (byte color = 0; color < colorCount; color++) {
+        if (classNodes[color] >= 0) {
+          classColors[classNodes[color] - graphNodeCount] = color;
+          initialCells[classNodes[color]] = 1;
+        }
+      }
+
+      int[] graphOffsets = compact.getOffsets();
+      short[] graphTargets = compact.getTargets();
+      int index = 0;
+
+      for (int node = 0; node < graphNodeCount; node++) {
+        offsets[node] = index;
+
+        for (int e = graphOffsets[node]; e < graphOffsets[node + 1]; e++) {
+          targets[index++] = graphTargets[e];
+        }
+
+        targets[index++] = (short)classNodes[colors[node]];
+      }
+
+      for (int c = 0; c < classCount; c++) {
+        offsets[graphNodeCount + c] = index;
+
+        for (short node = 0; node < graphNodeCount; node++) {
+          if (colors[node] == classColors[c]) {
+            targets[index++] = node;
+          }
+        }
+      }
+
+      offsets[nodeCount] = index;
+    }
+
+    CanonicalForm build() {
+      search(refine(initialCells));
+
+      short[] order = new short[graphNodeCount];
+      byte[] colorOrder = null;
+
+      for (int node = 0; node < graphNodeCount; node++) {
+        order[bestCells[node]] = compact.getOriginalId(node);
+      }
+
+      if (colorClasses) {
+        colorOrder = new byte[colorCount];
+
+        boolean[] present = new boolean[colorCount];
+
+        for (int node = graphNodeCount; node < nodeCount; node++) {
+          byte color = classColors[node - graphNodeCount];
+
+          colorOrder[bestCells[node] - graphNodeCount] = color;
+          present[color] = true;
+        }
+
+        int index = nodeCount - graphNodeCount;
+
+        for (byte color = 0; color < colorCount; color++) {
+          if (!present[color]) {
+            colorOrder[index++] = color;
+          }
+        }
+      }
+
+      return new CanonicalForm(bestCode, order, colorOrder);
+    }
+
+    /**
+     * Try every node of the first cell with more than one node on its own
+     * and keep the smallest encoding of the labellings that result
+     * @param cells cell of each node after refinement
+     */
+    private void search(int[] cells) {
+      if (leafCount >= MAX_LEAF_COUNT) {
+        return;
+      }
+
+      int[] cellSizes = new int[nodeCount];
+      int target = -1;
+
+      for (int node = 0; node < nodeCount; node++) {
+        cellSizes[cells[node]]++;
+      }
+
+      for (int cell = 0; cell < nodeCount && target < 0; cell++) {
+        if (cellSizes[cell] > 1) {
+          target = cell;
+        }
+      }
+
+      if (target < 0) {
+        leafCount++;
+
+        int[] code = encode(cells);
+
+        if (bestCode == null || compare(code, bestCode) < 0) {
+          bestCode = code;
+          bestCells = cells;
+        }
+
+        return;
+      }
+
+      for (int node = 0; node < nodeCount; node++) {
+        if (cells[node] != target) {
+          continue;
+        }
+
+        // Put the node in a cell of its own just ahead of the rest of its cell
+        int[] individualized = new int[nodeCount];
+
+        for (int n = 0; n < nodeCount; n++) {
+          individualized[n] = cells[n] * 2 + (n == node ? 0 : 1);
+        }
+
+        search(refine(individualized));
+      }
+    }
+
+    /**
+     * Split cells until every node in a cell has the same number of neighbors
+     * in each cell.  The new cells are numbered by sorting the nodes on their
+     * cell and then their neighbors' cells, so the numbering does not depend
+     * on the node ids
+     * @param cells starting cell of each node
+     * @return the cell of each node numbered from 0
+     */
+    private int[] refine(int[] cells) {
+      Integer[] sorted = new Integer[nodeCount];
+      int[][] signatures = new int[nodeCount][];
+      int cellCount = -1;
+
+      for (int node = 0; node < nodeCount; node++) {
+        sorted[node] = node;
+      }
+
+      while (true) {
+        for (int node = 0; node < nodeCount; node++) {
+          int[] signature = new int[offsets[node + 1] - offsets[node] + 1];
+
+          signature[0] = cells[node];
+
+          for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+            signature[e - offsets[node] + 1] = cells[targets[e]];
+          }
+
+          Arrays.sort(signature, 1, signature.length);
+
+          signatures[node] = signature;
+        }
+
+        Arrays.sort(sorted, (n1, n2) -> compareSignatures(signatures[n1]
+            , signatures[n2]));
+
+        int[] newCells = new int[nodeCount];
+        int cell = 0;
+
+        for (int i = 0; i < nodeCount; i++) {
+          if (i > 0 && compareSignatures(signatures[sorted[i]]
+              , signatures[sorted[i - 1]]) != 0) {
+            cell++;
+          }
+
+          newCells[sorted[i]] = cell;
+        }
+
+        cells = newCells;
+
+        if (cell + 1 == cellCount) {
+          return cells;
+        }
+
+        cellCount = cell + 1;
+      }
+    }
+
+    /**
+     * @param cells position of each node in the labelling
+     * @return the node count, then the starting cells and then the sorted
+     * neighbor positions of the nodes in order, followed by the color count
+     */
+    private int[] encode(int[] cells) {
+      int[] result = new int[2 + nodeCount * 2 + targets.length];
+      int[] nodesByCell = new int[nodeCount];
+
+      for (int node = 0; node < nodeCount; node++) {
+        nodesByCell[cells[node]] = node;
+      }
+
+      int index = 0;
+
+      result[index++] = nodeCount;
+
+      for (int cell = 0; cell < nodeCount; cell++) {
+        result[index++] = initialCells[nodesByCell[cell]];
+      }
+
+      for (int cell = 0; cell < nodeCount; cell++) {
+        int node = nodesByCell[cell];
+        int start = index + 1;
+
+        result[index++] = offsets[node + 1] - offsets[node];
+
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+          result[index++] = cells[targets[e]];
+        }
+
+        Arrays.sort(result, start, index);
+      }
+
+      result[index++] = colorCount;
+
+      return result;
+    }
+
+    /**
+     * Compare signatures by their cell first, so refining never reorders
+     * cells, and then by their neighbors' cells
+     */
+    private static int compareSignatures(int[] a, int[] b) {
+      if (a[0] != b[0]) {
+        return Integer.compare(a[0], b[0]);
+      }
+
+      return compare(a, b);
+    }
+
+    /**
+     * Compare arrays by length and then element by element
+     */
+    private static int compare(int[] a, int[] b) {
+      if (a.length != b.length) {
+        return a.length - b.length;
+      }
+
+      for (int i = 0; i < a.length; i++) {
+        if (a[i] != b[i]) {
+          return Integer.compare(a[i], b[i]);
+        }
+      }
+
+      return 0;
+    }
+  }
+
+}
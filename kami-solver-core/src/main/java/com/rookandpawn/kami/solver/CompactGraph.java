@@ -0,0 +1,167 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+
+/**
+ * The live nodes of a graph renumbered densely with their edges packed into a
+ * single array.  Graph keeps a slot for every id up to the largest one, so a
+ * small sub graph or a graph that has absorbed many nodes is mostly holes,
+ * and each node's neighbors are a separate array.  Here the nodes are
+ * numbered 0 to getNodeCount() - 1 in Cuthill-McKee order, so nodes that are
+ * close in the graph are close in memory, and the neighbors of node i are
+ * targets[offsets[i]] up to targets[offsets[i + 1]]
+ */
+final class CompactGraph {
+
+  private final short[] originalIds;
+  private final short[] compactIds;
+  private final byte[] colors;
+  private final int[] offsets;
+  private final short[] targets;
+
+  CompactGraph(Graph graph) {
+    byte[] nodes = graph.getNodes();
+    short[][] edges = graph.getEdges();
+
+    int nodeCount = 0;
+
+    for (byte color : nodes) {
+      if (color >= 0) {
+        nodeCount++;
+      }
+    }
+
+    this.originalIds = order(nodes, edges, nodeCount);
+    this.compactIds = new short[nodes.length];
+    this.colors = new byte[nodeCount];
+    this.offsets = new int[nodeCount + 1];
+
+    Arrays.fill(compactIds, (short)-1);
+
+    int edgeCount = 0;
+
+    for (short node = 0; node < nodeCount; node++) {
+      short original = originalIds[node];
+
+      compactIds[original] = node;
+      colors[node] = nodes[original];
+      edgeCount += edges[original].length;
+    }
+
+    this.targets = new short[edgeCount];
+
+    int index = 0;
+
+    for (int node = 0; node < nodeCount; node++) {
+      offsets[node] = index;
+
+      for (short n : edges[originalIds[node]]) {
+        targets[index++] = compactIds[n];
+      }
+    }
+
+    offsets[nodeCount] = index;
+  }
+
+  /**
+   * Order the live nodes by breadth first search from a node of lowest degree
+   * in each component, visiting the neighbors of each node from lowest degree
+   * to highest
+   * @param nodes
+   * @param edges
+   * @param nodeCount
+   * @return the original ids of the nodes in their new order
+   */
+  private static short[] order(byte[] nodes, short[][] edges, int nodeCount) {
+    short[] result = new short[nodeCount];
+    boolean[] seen = new boolean[nodes.length];
+    int count = 0;
+
+    while (count < nodeCount) {
+      short start = -1;
+
+      for (short node = 0; node < nodes.length; node++) {
+        if (nodes[node] >= 0 && !seen[node]
+            && (start < 0 || edges[node].length < edges[start].length)) {
+          start = node;
+        }
+      }
+
+      seen[start] = true;
+      result[count++] = start;
+
+      for (int head = count - 1; head < count; head++) {
+        int layerStart = count;
+
+        for (short n : edges[result[head]]) {
+          if (!seen[n]) {
+            seen[n] = true;
+            result[count++] = n;
+          }
+        }
+
+        // Insertion sort the neighbors just added by degree
+        for (int i = layerStart + 1; i < count; i++) {
+          short node = result[i];
+          int j = i - 1;
+
+          while (j >= layerStart
+              && edges[result[j]].length > edges[node].length) {
+            result[j + 1] = result[j];
+            j--;
+          }
+
+          result[j + 1] = node;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the number of live nodes
+   */
+  int getNodeCount() {
+    return colors.length;
+  }
+
+  /**
+   * @param node compact id
+   * @return id of the node in the original graph
+   */
+  short getOriginalId(int node) {
+    return originalIds[node];
+  }
+
+  /**
+   * @param original id of a node in the original graph
+   * @return its compact id or -1 if it is not a live node
+   */
+  short getCompactId(short original) {
+    return original < compactIds.length ? compactIds[original] : -1;
+  }
+
+  /**
+   * @return color of each node by compact id
+   */
+  byte[] getColors() {
+    return colors;
+  }
+
+  /**
+   * @return where each node's neighbors start in the targets, with an extra
+   * entry at the end for where the last node's neighbors end
+   */
+  int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * @return the compact ids of every node's neighbors one after the other
+   */
+  short[] getTargets() {
+    return targets;
+  }
+
+}
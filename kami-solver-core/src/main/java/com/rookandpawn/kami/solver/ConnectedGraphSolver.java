@@ -0,0 +1,36 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+
+import com.google.common.base.Optional;
+
+/**
+ * Definition of a solver that finds solutions for a connected graph by
+ * repeatedly changing the color of a single starting node
+ */
+public interface ConnectedGraphSolver {
+
+  /**
+   * Search for a solution with the given number of moves
+   * @param solutionLength number of moves allowed
+   * @param finalColor color the graph must end up or -1 for any color
+   * @return a solution or absent
+   */
+  default Optional<List<Move>> go(int solutionLength, byte finalColor) {
+    return go(solutionLength, finalColor, new CancellationToken());
+  }
+
+  /**
+   * Search for a solution with the given number of moves
+   * @param solutionLength number of moves allowed
+   * @param finalColor color the graph must end up or -1 for any color
+   * @param token token to stop the search early
+   * @return a solution or absent if none exists or the search was cancelled
+   * @throws SearchLimitException if the solver gave up before it could tell
+   * whether there is a solution
+   */
+  Optional<List<Move>> go(int solutionLength
+      , byte finalColor
+      , CancellationToken token);
+
+}
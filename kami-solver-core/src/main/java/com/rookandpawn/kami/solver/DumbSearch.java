@@ -3,12 +3,18 @@ package com.rookandpawn.kami.solver;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.google.j2objc.annotations.AutoreleasePool;
@@ -16,7 +22,7 @@ import com.google.j2objc.annotations.AutoreleasePool;
 /**
  * Absolute BruteForce search
  */
-public class DumbSearch {
+public class DumbSearch implements ConnectedGraphSolver {
 
   private final Graph graph;
   private final PathSet paths;
@@ -26,19 +32,96 @@ public class DumbSearch {
   private final int minSolutionLength;
   private final short center;
 
-  private short solutionNode;
-  private byte[] solution;
-  private int lastSolutionIndex;
+  private final ForkJoinPool pool;
+  private final EvaluationMode evaluationMode;
+  private final int worker;
+
+  private Orbits orbits;
+  private BlockCutTree blockCutTree;
+  private LowerBounds lowerBounds;
+
+  private int lengthsAtOnce = 1;
 
   public DumbSearch(Graph graph) {
+    this(graph, (ForkJoinPool)null);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param pool pool to test start nodes on in parallel or null to test them
+   *        one at a time on the calling thread
+   */
+  public DumbSearch(Graph graph, ForkJoinPool pool) {
+    this(graph, new PathSet(graph), pool);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   */
+  public DumbSearch(Graph graph, PathSet paths) {
+    this(graph, paths, null);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   * @param pool pool to test start nodes on in parallel or null to test them
+   *        one at a time on the calling thread
+   */
+  public DumbSearch(Graph graph, PathSet paths, ForkJoinPool pool) {
+    this(graph, paths, pool, EvaluationMode.DEPTH_FIRST);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   * @param pool pool to test start nodes on in parallel or null to test them
+   *        one at a time on the calling thread
+   * @param evaluationMode how to test the color sequences of a start node
+   */
+  public DumbSearch(Graph graph
+      , PathSet paths
+      , ForkJoinPool pool
+      , EvaluationMode evaluationMode) {
+    this(graph, paths, pool, evaluationMode, 0);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   * @param pool pool to test start nodes on in parallel or null to test them
+   *        one at a time on the calling thread
+   * @param evaluationMode how to test the color sequences of a start node
+   * @param worker number of the search this one works for among several
+   *        searching the same graph, which starts that many places further
+   *        along the list of start nodes
+   */
+  public DumbSearch(Graph graph
+      , PathSet paths
+      , ForkJoinPool pool
+      , EvaluationMode evaluationMode
+      , int worker) {
     this.graph = graph;
-    this.paths = new PathSet(graph);
+    this.worker = worker;
+    this.pool = pool;
+    this.paths = paths;
+    this.evaluationMode = evaluationMode;
     this.colorCount = graph.getColors().length;
     this.colorWrapNumber = colorCount - 1;
     center = paths.getCenterNode();
     minSolutionLength = paths.getMaxDistanceFrom(center);
   }
 
+  /**
+   * @param lengthsAtOnce number of solution lengths go searches at once on
+   *        the pool, cancelling the longer ones once a shorter one succeeds.
+   *        With 1 or no pool the lengths are searched one after another
+   */
+  public void setLengthsAtOnce(int lengthsAtOnce) {
+    this.lengthsAtOnce = lengthsAtOnce;
+  }
+
   public List<Move> go() {
     return go(minSolutionLength);
   }
@@ -47,6 +130,9 @@ public class DumbSearch {
 
     int solutionLength = Math.max(startSolutionLength, minSolutionLength);
 
+    solutionLength = Math.max(solutionLength
+        , LowerBounds.forGraph(graph, (byte)-1));
+
     if (graph.getActualNodeCount() >= startSolutionLength) {
       int minCenterPathLength = paths.getMaxDistanceFrom(center);
 
@@ -59,6 +145,15 @@ public class DumbSearch {
       }
     }
     
+    if (pool != null && lengthsAtOnce > 1) {
+      return SpeculativeDeepening.findFirst(solutionLength
+          , Integer.MAX_VALUE
+          , lengthsAtOnce
+          , pool
+          , new CancellationToken()
+          , (length, token) -> go(length, (byte)-1, token)).orNull();
+    }
+
     boolean found = false;
 
     for (; !found; solutionLength++) {
@@ -72,7 +167,10 @@ public class DumbSearch {
     return null;
   }
 
-  public Optional<List<Move>> go(int solutionLength, byte finalColor) {
+  @Override
+  public Optional<List<Move>> go(int solutionLength
+      , byte finalColor
+      , CancellationToken token) {
 
     if (solutionLength < minSolutionLength) {
       return Optional.absent();
@@ -100,50 +198,48 @@ public class DumbSearch {
       }
     }
 
-    Queue<Short> q = Queues.newArrayDeque();
-    Set<Short> seen = Sets.newHashSet();
-
-    boolean found = false;
-
     System.out.println("Search Length = " + solutionLength);
 
-    q.add(center);
-    seen.clear();
+    List<Short> startNodes = getStartNodes(solutionLength, finalColor);
 
-    solution = new byte[solutionLength];
-    lastSolutionIndex = solutionLength - 1;
+    int solutionIndex = -1;
+    byte[] solution = null;
 
-    while (!q.isEmpty()) {
+    if (pool == null) {
+      GraphEvaluator f = GraphEvaluator.forGraph(graph);
+      byte[] sequence = new byte[solutionLength];
 
-      solutionNode = q.poll();
-
-      if (!seen.add(solutionNode)) {
-        continue;
-      }
+      for (int i = 0; i < startNodes.size() && solution == null; i++) {
+        short node = startNodes.get(i);
 
-      int minDist = paths.getMaxDistanceFrom(solutionNode);
+        System.out.println("At node " + node);
 
-      if (minDist > solutionLength) {
-        continue;
+        if (testAllSolutions(node, finalColor, f, sequence
+            , token::isCancelled)) {
+          solutionIndex = i;
+          solution = sequence;
+        }
       }
+    }
+    else {
+      byte[][] solutions = new byte[startNodes.size()][];
+      AtomicInteger bestIndex = new AtomicInteger(Integer.MAX_VALUE);
 
-      System.out.println("At node " + solutionNode);
-
-      found = testAllSolutions(solutionNode, finalColor);
+      testAllStartNodes(startNodes, solutionLength, finalColor
+          , solutions, bestIndex, token);
 
-      if (found) {
-        break;
-      }
-
-      for (short n : graph.getEdges()[solutionNode]) {
-        q.add(n);
+      if (bestIndex.get() < solutions.length) {
+        solutionIndex = bestIndex.get();
+        solution = solutions[solutionIndex];
       }
     }
 
-    if (!found) {
+    if (solution == null) {
       return Optional.absent();
     }
 
+    short solutionNode = startNodes.get(solutionIndex);
+
     List<Move> result = Lists.newArrayList();
 
     byte prevC = graph.getNodes()[solutionNode];
@@ -172,19 +268,159 @@ public class DumbSearch {
     return Optional.of(result);
   }
 
+  /**
+   * @param solutionLength
+   * @param finalColor
+   * @return the nodes that could start a solution of the given length, with
+   * the ones the block cut tree gives the most room first and otherwise in
+   * breadth first order from the center of the graph, leaving out nodes that
+   * a symmetry of the graph takes an earlier start node to.  Workers other
+   * than the first start further along the list and wrap around
+   */
+  private List<Short> getStartNodes(int solutionLength, byte finalColor) {
+    if (orbits == null) {
+      orbits = Orbits.of(graph);
+      blockCutTree = new BlockCutTree(graph);
+      lowerBounds = new LowerBounds(graph);
+    }
+
+    List<Short> result = Lists.newArrayList();
+    Map<Short,Integer> bounds = Maps.newHashMap();
+    Queue<Short> q = Queues.newArrayDeque();
+    Set<Short> seen = Sets.newHashSet();
+    Set<Short> seenOrbits = Sets.newHashSet();
+
+    q.add(center);
+
+    while (!q.isEmpty()) {
+
+      short node = q.poll();
+
+      if (!seen.add(node)) {
+        continue;
+      }
+
+      int minDist = paths.getMaxDistanceFrom(node);
+
+      if (minDist > solutionLength) {
+        continue;
+      }
+
+      int bound = Math.max(
+          blockCutTree.getLowerBound(node, paths, finalColor)
+          , lowerBounds.getRegionBound(graph.getNodes(), node, finalColor));
+
+      // Nodes beyond one the bound rules out can still be good start nodes,
+      // so keep searching past it
+      if (bound <= solutionLength
+          && seenOrbits.add(orbits.getRepresentative(node))) {
+        result.add(node);
+        bounds.put(node, bound);
+      }
+
+      for (short n : graph.getEdges()[node]) {
+        q.add(n);
+      }
+    }
+
+    Collections.sort(result, (n1, n2) -> bounds.get(n1) - bounds.get(n2));
+
+    if (worker > 0 && !result.isEmpty()) {
+      Collections.rotate(result, -(worker % result.size()));
+    }
+
+    return result;
+  }
+
+  /**
+   * Test every start node at once on the pool.  Each task has its own
+   * evaluator and sequence, and a task gives up as soon as a start node
+   * earlier in the start node list has found a solution, so the result is
+   * the same as testing the start nodes one at a time in list order
+   * @param startNodes
+   * @param solutionLength
+   * @param finalColor
+   * @param solutions solutions found by start node index
+   * @param bestIndex index of the earliest start node with a solution
+   * @param token
+   */
+  private void testAllStartNodes(List<Short> startNodes
+      , int solutionLength
+      , byte finalColor
+      , byte[][] solutions
+      , AtomicInteger bestIndex
+      , CancellationToken token) {
+
+    List<ForkJoinTask<?>> tasks = Lists.newArrayList();
+
+    for (int i = 0; i < startNodes.size(); i++) {
+      final int index = i;
+      final short node = startNodes.get(i);
+
+      tasks.add(pool.submit(() -> {
+        if (bestIndex.get() < index || token.isCancelled()) {
+          return;
+        }
+
+        System.out.println("At node " + node);
+
+        byte[] sequence = new byte[solutionLength];
+
+        boolean found = testAllSolutions(node
+            , finalColor
+            , GraphEvaluator.forGraph(graph)
+            , sequence
+            , () -> bestIndex.get() < index || token.isCancelled());
+
+        if (found) {
+          solutions[index] = sequence;
+
+          int best = bestIndex.get();
+
+          while (index < best && !bestIndex.compareAndSet(best, index)) {
+            best = bestIndex.get();
+          }
+        }
+      }));
+    }
+
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+  }
+
+  /**
+   * Test every color sequence for the given start node
+   * @param node start node
+   * @param finalColor
+   * @param f evaluator to test with
+   * @param solution sequence to test with.  It holds the solution if one is
+   * found
+   * @param abandon checked between sequences to stop early
+   * @return true if a solution was found
+   */
   @AutoreleasePool
-  private boolean testAllSolutions(short node, byte finalColor) {
+  private boolean testAllSolutions(short node
+      , byte finalColor
+      , GraphEvaluator f
+      , byte[] solution
+      , BooleanSupplier abandon) {
+    if (evaluationMode == EvaluationMode.DEPTH_FIRST) {
+      return f.findSolution(node, solution, finalColor, abandon);
+    }
+
     Arrays.fill(solution, (byte)0);
-    FastGraph f = new FastGraph(graph);
 
     int solutionLength = solution.length;
-    int defaultIncrementPos = lastSolutionIndex;
+    int defaultIncrementPos = solutionLength - 1;
 
     int incrementAt;
 
     do {
 
-      //System.out.println("\nTesting " + Arrays.toString(solution));
+      if (abandon.getAsBoolean()) {
+        return false;
+      }
 
       int result = f.evaluate(node, solution, finalColor);
 
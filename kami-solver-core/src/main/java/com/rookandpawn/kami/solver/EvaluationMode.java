@@ -0,0 +1,20 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * The ways DumbSearch can test the color sequences for a start node
+ */
+public enum EvaluationMode {
+
+  /**
+   * Play every sequence out from the original graph, skipping ahead past
+   * sequences that share a failing prefix
+   */
+  REPLAY
+
+  /**
+   * Walk the tree of sequences depth first, taking back one color change at a
+   * time, so a shared prefix is only played out once
+   */
+  , DEPTH_FIRST
+
+}
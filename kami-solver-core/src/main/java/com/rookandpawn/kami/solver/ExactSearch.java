@@ -0,0 +1,660 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * Breadth first search over every state the board can reach, where a move
+ * may change any region to any color.  Search only tries a few extra moves
+ * followed by changing the region around one start node, so it can miss
+ * solutions that work on several parts of the board in turn.  This finds the
+ * shortest solution of any shape, at the price of keeping every state seen so
+ * far, so it is only practical for small boards.
+ * <p>
+ * A move that does not merge the region with a neighbor never shortens a
+ * solution, so only colors of a region's neighbors are tried.  States are the
+ * colors of the nodes of the compact graph packed into a StateSet, and each
+ * state remembers the state and move it was reached from.  Lengths are
+ * searched in turn from a lower bound up, because with a tight length most
+ * states have more colors left than moves and are never kept.
+ * <p>
+ * Given a directory, the layers are kept there in an ExternalFrontier
+ * instead, with no limit on their size.  States on disk do not remember how
+ * they were reached, so the solution is traced back by going through each
+ * earlier layer for a state one move away from the one after it
+ */
+public class ExactSearch implements ConnectedGraphSolver {
+
+  public static final int DEFAULT_MAX_STATE_COUNT = 1 << 22;
+
+  /**
+   * States sorted in memory at a time when the layers are on disk
+   */
+  private static final int RUN_STATE_COUNT = 1 << 22;
+
+  private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+  /**
+   * Receiver of the states one move away from a state
+   */
+  private interface ChildVisitor {
+
+    /**
+     * @param child the new state
+     * @param node node in the region that was changed
+     * @param color color it was changed to
+     * @param oneColor true if the new state is all one color
+     * @return false to stop visiting
+     */
+    boolean visit(long[] child, short node, byte color, boolean oneColor);
+  }
+
+  private final Graph graph;
+  private final CompactGraph compact;
+  private final int maxStateCount;
+  private final File frontierDirectory;
+
+  private final int nodeCount;
+  private final int wordCount;
+  private final int colorCount;
+  private final int[] offsets;
+  private final short[] targets;
+
+  // Working space for expanding a state
+  private final long[] child;
+  private final byte[] stateColors;
+  private final int[] regions;
+  private final int[] regionStarts;
+  private final short[] regionNodes;
+  private final int[] colorCounts;
+
+  // Parent state and move that reached each state kept in memory
+  private int[] parents;
+  private short[] moveNodes;
+  private byte[] moveColors;
+
+  private int goalState;
+  private int oneColorState;
+
+  public ExactSearch(Graph graph) {
+    this(graph, DEFAULT_MAX_STATE_COUNT);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param maxStateCount most states to keep before giving up with a
+   *        SearchLimitException
+   */
+  public ExactSearch(Graph graph, int maxStateCount) {
+    this(graph, maxStateCount, null);
+  }
+
+  /**
+   * Create a search that keeps its layers on disk
+   * @param graph graph to solve
+   * @param frontierDirectory directory to keep the layers in
+   */
+  public ExactSearch(Graph graph, File frontierDirectory) {
+    this(graph, Integer.MAX_VALUE, frontierDirectory);
+  }
+
+  private ExactSearch(Graph graph
+      , int maxStateCount
+      , File frontierDirectory) {
+    if (graph.getColors().length > StateSet.MAX_COLOR_COUNT) {
+      throw new IllegalArgumentException("Only graphs with up to "
+          + StateSet.MAX_COLOR_COUNT + " colors can be searched exactly");
+    }
+
+    this.graph = graph;
+    this.compact = new CompactGraph(graph);
+    this.maxStateCount = maxStateCount;
+    this.frontierDirectory = frontierDirectory;
+    this.nodeCount = compact.getNodeCount();
+    this.wordCount = StateSet.wordCount(nodeCount);
+    this.colorCount = graph.getColors().length;
+    this.offsets = compact.getOffsets();
+    this.targets = compact.getTargets();
+
+    this.child = new long[wordCount];
+    this.stateColors = new byte[nodeCount];
+    this.regions = new int[nodeCount];
+    this.regionStarts = new int[nodeCount + 1];
+    this.regionNodes = new short[nodeCount];
+    this.colorCounts = new int[colorCount];
+  }
+
+  /**
+   * @param token token to stop the search early
+   * @return the shortest solution or absent if the search was cancelled first
+   * @throws SearchLimitException if the search ran out of room first
+   */
+  public Optional<List<Move>> go(CancellationToken token) {
+    return go(Integer.MAX_VALUE, (byte)-1, token);
+  }
+
+  /**
+   * Find the shortest solution no longer than the given length
+   * @param solutionLength number of moves allowed
+   * @param finalColor color the graph must end up or -1 for any color
+   * @param token token to stop the search early
+   * @return the shortest solution or absent if there is none within the
+   * given length or the search was cancelled first
+   * @throws SearchLimitException if the search ran out of room or could not
+   * write its layers before it was decided
+   */
+  @Override
+  public Optional<List<Move>> go(int solutionLength
+      , byte finalColor
+      , CancellationToken token) {
+
+    long[] start = new long[wordCount];
+    byte[] colors = compact.getColors();
+
+    for (int node = 0; node < nodeCount; node++) {
+      StateSet.setColor(start, node, colors[node]);
+    }
+
+    if (findRegions(start) <= 1) {
+      if (finalColor < 0 || nodeCount == 0 || stateColors[0] == finalColor) {
+        return Optional.of(Lists.newArrayList());
+      }
+
+      return solutionLength > 0
+          ? Optional.of(rebuild(new short[0], new byte[0], finalColor))
+          : Optional.absent();
+    }
+
+    for (int length = LowerBounds.forGraph(graph, finalColor)
+        ; length <= solutionLength && !token.isCancelled()
+        ; length++) {
+      Optional<List<Move>> result = frontierDirectory != null
+          ? searchOnDisk(start, length, finalColor, token)
+          : search(start, length, finalColor, token);
+
+      if (result.isPresent()) {
+        return result;
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * Search every state within the given number of moves, turning down those
+   * with more colors left than moves
+   * @param start
+   * @param solutionLength
+   * @param finalColor
+   * @param token
+   * @return the shortest solution or absent
+   */
+  private Optional<List<Move>> search(long[] start
+      , int solutionLength
+      , byte finalColor
+      , CancellationToken token) {
+
+    StateSet states = new StateSet(wordCount);
+    long[] state = new long[wordCount];
+
+    parents = new int[1024];
+    moveNodes = new short[1024];
+    moveColors = new byte[1024];
+
+    states.add(start);
+    parents[0] = -1;
+
+    int layerStart = 0;
+    int layerEnd = 1;
+    int expanded = 0;
+
+    for (int depth = 0
+        ; depth < solutionLength && layerStart < layerEnd
+        ; depth++) {
+
+      // A state of a single color other than the final one takes one more
+      // move, which is only used if no state in the next layer has the
+      // final color
+      goalState = -1;
+      oneColorState = -1;
+
+      for (int index = layerStart; index < layerEnd; index++) {
+        if (++expanded % CANCEL_CHECK_INTERVAL == 0 && token.isCancelled()) {
+          return Optional.absent();
+        }
+
+        int parent = index;
+
+        states.get(index, state);
+
+        boolean finished = !expand(state, solutionLength - depth - 1
+            , finalColor, (newState, node, color, oneColor) -> {
+          int childIndex = states.add(newState);
+
+          if (childIndex < 0) {
+            return true;
+          }
+
+          if (childIndex >= maxStateCount) {
+            throw new SearchLimitException("Exact search gave up after "
+                + childIndex + " states");
+          }
+
+          record(childIndex, parent, node, color);
+
+          if (oneColor) {
+            if (finalColor < 0 || color == finalColor) {
+              goalState = childIndex;
+              return false;
+            }
+
+            if (oneColorState < 0) {
+              oneColorState = childIndex;
+            }
+          }
+
+          return true;
+        });
+
+        if (finished) {
+          return goalState >= 0
+              ? Optional.of(rebuild(goalState, (byte)-1))
+              : Optional.absent();
+        }
+      }
+
+      if (oneColorState >= 0) {
+        return Optional.of(rebuild(oneColorState, finalColor));
+      }
+
+      layerStart = layerEnd;
+      layerEnd = states.size();
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * Version of search that keeps the layers on disk
+   * @param start
+   * @param solutionLength
+   * @param finalColor
+   * @param token
+   * @return the shortest solution or absent
+   */
+  private Optional<List<Move>> searchOnDisk(long[] start
+      , int solutionLength
+      , byte finalColor
+      , CancellationToken token) {
+
+    long[] state = new long[wordCount];
+
+    // The state a solution was found from and the move that finished it
+    long[] goalParent = new long[wordCount];
+    short[] goalNode = new short[1];
+    byte[] goalColor = new byte[1];
+
+    try (ExternalFrontier frontier = new ExternalFrontier(frontierDirectory
+        , wordCount, RUN_STATE_COUNT)) {
+
+      frontier.add(start);
+
+      long layerSize = frontier.finishLayer();
+      int expanded = 0;
+
+      for (int depth = 0
+          ; depth < solutionLength && layerSize > 0
+          ; depth++) {
+
+        goalState = -1;
+        oneColorState = -1;
+
+        try (StateFile.Reader reader = frontier.openLayer(depth)) {
+          while (reader.next(state)) {
+            if (++expanded % CANCEL_CHECK_INTERVAL == 0
+                && token.isCancelled()) {
+              return Optional.absent();
+            }
+
+            boolean found = !expand(state, solutionLength - depth - 1
+                , finalColor, (newState, node, color, oneColor) -> {
+              // A state of one color has no moves left, so it is never
+              // written out
+              if (oneColor) {
+                boolean isGoal = finalColor < 0 || color == finalColor;
+
+                if (isGoal || oneColorState < 0) {
+                  goalState = isGoal ? 1 : -1;
+                  oneColorState = 1;
+                  System.arraycopy(state, 0, goalParent, 0, wordCount);
+                  goalNode[0] = node;
+                  goalColor[0] = color;
+                }
+
+                return !isGoal;
+              }
+
+              try {
+                frontier.add(newState);
+              }
+              catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+
+              return true;
+            });
+
+            if (found) {
+              break;
+            }
+          }
+        }
+
+        if (oneColorState >= 0) {
+          return Optional.of(trace(frontier, depth, goalParent
+              , goalNode[0], goalColor[0]
+              , goalState >= 0 ? (byte)-1 : finalColor));
+        }
+
+        layerSize = frontier.finishLayer();
+      }
+
+      return Optional.absent();
+    }
+    catch (IOException | UncheckedIOException ex) {
+      throw new SearchLimitException("Exact search failed to write its layers"
+          , ex);
+    }
+  }
+
+  /**
+   * Find the moves that lead to a solution from the layers on disk
+   * @param frontier
+   * @param depth layer of the state the last move was made from
+   * @param state state the last move was made from
+   * @param node node of the last move
+   * @param color color of the last move
+   * @param finalColor color to change the whole graph to at the end or -1
+   * @return the moves of the solution
+   */
+  private List<Move> trace(ExternalFrontier frontier
+      , int depth
+      , long[] state
+      , short node
+      , byte color
+      , byte finalColor) throws IOException {
+
+    short[] nodes = new short[depth + 1];
+    byte[] newColors = new byte[depth + 1];
+    long[] target = state.clone();
+    long[] candidate = new long[wordCount];
+
+    nodes[depth] = node;
+    newColors[depth] = color;
+
+    for (int layer = depth - 1; layer >= 0; layer--) {
+      int move = layer;
+
+      try (StateFile.Reader reader = frontier.openLayer(layer)) {
+        boolean found = false;
+
+        while (!found && reader.next(candidate)) {
+          found = !expand(candidate, Integer.MAX_VALUE, (byte)-1
+              , (newState, n, c, oneColor) -> {
+            if (!Arrays.equals(newState, target)) {
+              return true;
+            }
+
+            nodes[move] = n;
+            newColors[move] = c;
+            return false;
+          });
+        }
+      }
+
+      System.arraycopy(candidate, 0, target, 0, wordCount);
+    }
+
+    return rebuild(nodes, newColors, finalColor);
+  }
+
+  /**
+   * Visit every state one move away from the given one that might still be
+   * solved in the given number of moves
+   * @param state
+   * @param movesLeft moves left after the one being made
+   * @param finalColor color the graph must end up or -1 for any color
+   * @param visitor
+   * @return false if the visitor stopped early
+   */
+  private boolean expand(long[] state
+      , int movesLeft
+      , byte finalColor
+      , ChildVisitor visitor) {
+
+    int regionCount = findRegions(state);
+    int presentColorCount = 0;
+
+    for (int count : colorCounts) {
+      if (count > 0) {
+        presentColorCount++;
+      }
+    }
+
+    for (int region = 0; region < regionCount; region++) {
+      int start = regionStarts[region];
+      int size = regionStarts[region + 1] - start;
+      byte oldColor = stateColors[regionNodes[start]];
+      int neighborColors = 0;
+
+      for (int i = start; i < start + size; i++) {
+        int node = regionNodes[i];
+
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+          neighborColors |= 1 << stateColors[targets[e]];
+        }
+      }
+
+      neighborColors &= ~(1 << oldColor);
+
+      for (byte color = 0; color < colorCount; color++) {
+        if ((neighborColors & (1 << color)) == 0) {
+          continue;
+        }
+
+        // Every color but the final one still needs a move of its own
+        int childColorCount = colorCounts[oldColor] == size
+            ? presentColorCount - 1
+            : presentColorCount;
+        int finalColorCount = finalColor < 0 ? 1
+            : colorCounts[finalColor]
+                - (oldColor == finalColor ? size : 0)
+                + (color == finalColor ? size : 0);
+        int bound = finalColorCount > 0
+            ? childColorCount - 1
+            : childColorCount;
+
+        if (bound > movesLeft) {
+          continue;
+        }
+
+        System.arraycopy(state, 0, child, 0, wordCount);
+
+        for (int i = start; i < start + size; i++) {
+          StateSet.setColor(child, regionNodes[i], color);
+        }
+
+        if (!visitor.visit(child, regionNodes[start], color
+            , colorCounts[color] + size == nodeCount)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Split the nodes of the given state into regions of the same color,
+   * filling in stateColors with the color of each node, regions with the
+   * region of each node, regionNodes with the nodes of each region in turn
+   * starting from the node it was found from, regionStarts with the start of
+   * each region in regionNodes and colorCounts with the number of nodes of
+   * each color
+   * @param state
+   * @return the number of regions
+   */
+  private int findRegions(long[] state) {
+    Arrays.fill(regions, -1);
+    Arrays.fill(colorCounts, 0);
+
+    for (int node = 0; node < nodeCount; node++) {
+      stateColors[node] = StateSet.getColor(state, node);
+      colorCounts[stateColors[node]]++;
+    }
+
+    int regionCount = 0;
+    int count = 0;
+
+    for (short node = 0; node < nodeCount; node++) {
+      if (regions[node] >= 0) {
+        continue;
+      }
+
+      byte color = stateColors[node];
+      int head = count;
+
+      regionStarts[regionCount] = count;
+      regions[node] = regionCount;
+      regionNodes[count++] = node;
+
+      while (head < count) {
+        short current = regionNodes[head++];
+
+        for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+          short n = targets[e];
+
+          if (regions[n] < 0 && stateColors[n] == color) {
+            regions[n] = regionCount;
+            regionNodes[count++] = n;
+          }
+        }
+      }
+
+      regionCount++;
+    }
+
+    regionStarts[regionCount] = count;
+
+    return regionCount;
+  }
+
+  private void record(int index, int parent, short node, byte color) {
+    if (index >= parents.length) {
+      int length = parents.length * 2;
+
+      parents = Arrays.copyOf(parents, length);
+      moveNodes = Arrays.copyOf(moveNodes, length);
+      moveColors = Arrays.copyOf(moveColors, length);
+    }
+
+    parents[index] = parent;
+    moveNodes[index] = node;
+    moveColors[index] = color;
+  }
+
+  /**
+   * @param index state kept in memory that was reached by the solution
+   * @param finalColor color to change the whole graph to at the end or -1
+   * @return the moves from the start to the given state
+   */
+  private List<Move> rebuild(int index, byte finalColor) {
+    int length = 0;
+
+    for (int i = index; parents[i] >= 0; i = parents[i]) {
+      length++;
+    }
+
+    short[] nodes = new short[length];
+    byte[] newColors = new byte[length];
+
+    for (int i = index, move = length - 1; move >= 0; i = parents[i]) {
+      nodes[move] = moveNodes[i];
+      newColors[move--] = moveColors[i];
+    }
+
+    return rebuild(nodes, newColors, finalColor);
+  }
+
+  /**
+   * Turn moves on the compact graph into moves on the graph.  A changed node
+   * takes in the neighbors of its new color, so a move's node is given as the
+   * graph node that has taken in the region it changes
+   * @param nodes compact node in the region changed by each move
+   * @param newColors color of each move
+   * @param finalColor color to change the whole graph to at the end or -1
+   * @return the moves on the graph
+   */
+  private List<Move> rebuild(short[] nodes, byte[] newColors, byte finalColor) {
+    byte[] colors = Arrays.copyOf(compact.getColors(), nodeCount);
+    short[] owners = new short[nodeCount];
+    short[] queue = new short[nodeCount];
+    boolean[] seen = new boolean[nodeCount];
+
+    for (short node = 0; node < nodeCount; node++) {
+      owners[node] = compact.getOriginalId(node);
+    }
+
+    List<Move> result = Lists.newArrayList();
+
+    for (int move = 0; move < nodes.length; move++) {
+      short owner = owners[nodes[move]];
+
+      result.add(graph.createMove(owner, newColors[move]));
+
+      // Change the region, then hand the merged region to its owner
+      for (int pass = 0; pass < 2; pass++) {
+        byte color = colors[nodes[move]];
+        int head = 0;
+        int tail = 0;
+
+        Arrays.fill(seen, false);
+        seen[nodes[move]] = true;
+        queue[tail++] = nodes[move];
+
+        while (head < tail) {
+          short node = queue[head++];
+
+          if (pass == 0) {
+            colors[node] = newColors[move];
+          }
+          else {
+            owners[node] = owner;
+          }
+
+          for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+            short n = targets[e];
+
+            if (!seen[n] && colors[n] == color) {
+              seen[n] = true;
+              queue[tail++] = n;
+            }
+          }
+        }
+      }
+    }
+
+    if (finalColor >= 0) {
+      result.add(graph.createMove(owners[0], finalColor));
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,319 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Layers of a breadth first search over packed states kept on disk, so the
+ * number of states is limited by the disk instead of the heap.  States added
+ * for the next layer are collected in a buffer that is sorted and written out
+ * as a run whenever it fills.  Finishing the layer merges the runs, and since
+ * every earlier layer is a sorted file as well, the same pass walks through
+ * them and drops any state that was already reached in fewer moves.  The heap
+ * only ever holds the run buffer and one state per open file
+ */
+final class ExternalFrontier implements Closeable {
+
+  private final File directory;
+  private final int wordCount;
+
+  private final long[] pivot;
+  private final int bufferCapacity;
+  private long[] buffer;
+  private int bufferCount;
+
+  private final List<File> runs = Lists.newArrayList();
+  private final List<Long> runCounts = Lists.newArrayList();
+
+  private final List<File> layers = Lists.newArrayList();
+  private final List<Long> layerCounts = Lists.newArrayList();
+
+  /**
+   * @param parent directory to keep the files in, which get a new directory
+   *        of their own there
+   * @param wordCount length of each state
+   * @param runStateCount most states to sort in memory at a time
+   * @throws IOException
+   */
+  ExternalFrontier(File parent, int wordCount, int runStateCount)
+      throws IOException {
+    this.directory = Files.createTempDirectory(parent.toPath()
+        , "kami-frontier").toFile();
+    this.wordCount = wordCount;
+    this.bufferCapacity = runStateCount;
+    this.buffer = new long[Math.min(runStateCount, 1024) * wordCount];
+    this.pivot = new long[wordCount];
+  }
+
+  /**
+   * Add a state to the layer being built
+   * @param state
+   * @throws IOException
+   */
+  void add(long[] state) throws IOException {
+    if (bufferCount == bufferCapacity) {
+      writeRun();
+    }
+    else if ((bufferCount + 1) * wordCount > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.min(bufferCapacity * wordCount
+          , buffer.length * 2));
+    }
+
+    System.arraycopy(state, 0, buffer, bufferCount * wordCount, wordCount);
+    bufferCount++;
+  }
+
+  /**
+   * Merge the states added since the last layer into a new layer, leaving
+   * out those in earlier layers
+   * @return the number of states in the new layer
+   * @throws IOException
+   */
+  long finishLayer() throws IOException {
+    writeRun();
+
+    File layerFile = new File(directory, "layer-" + layers.size());
+    List<StateFile.Reader> runReaders = Lists.newArrayList();
+    List<StateFile.Reader> layerReaders = Lists.newArrayList();
+    long count;
+
+    try (StateFile.Writer writer
+        = new StateFile.Writer(layerFile, wordCount)) {
+
+      for (int i = 0; i < runs.size(); i++) {
+        runReaders.add(new StateFile.Reader(runs.get(i), wordCount
+            , runCounts.get(i)));
+      }
+
+      for (int i = 0; i < layers.size(); i++) {
+        layerReaders.add(openLayer(i));
+      }
+
+      merge(runReaders, layerReaders, writer);
+      count = writer.getCount();
+    }
+    finally {
+      for (StateFile.Reader reader : runReaders) {
+        reader.close();
+      }
+
+      for (StateFile.Reader reader : layerReaders) {
+        reader.close();
+      }
+    }
+
+    for (File run : runs) {
+      run.delete();
+    }
+
+    runs.clear();
+    runCounts.clear();
+    layers.add(layerFile);
+    layerCounts.add(count);
+
+    return count;
+  }
+
+  /**
+   * @param layer
+   * @return a reader of the states of the given finished layer
+   * @throws IOException
+   */
+  StateFile.Reader openLayer(int layer) throws IOException {
+    return new StateFile.Reader(layers.get(layer), wordCount
+        , layerCounts.get(layer));
+  }
+
+  int getLayerCount() {
+    return layers.size();
+  }
+
+  /**
+   * Write the states from the runs that are in none of the layers, each only
+   * once
+   */
+  private void merge(List<StateFile.Reader> runReaders
+      , List<StateFile.Reader> layerReaders
+      , StateFile.Writer writer) throws IOException {
+
+    int runCount = runReaders.size();
+    int layerCount = layerReaders.size();
+
+    // Current state of each reader, one after another
+    long[] heads = new long[runCount * wordCount];
+    boolean[] live = new boolean[runCount];
+    long[] layerHeads = new long[layerCount * wordCount];
+    boolean[] layerLive = new boolean[layerCount];
+    long[] state = new long[wordCount];
+    long[] last = new long[wordCount];
+    long[] scratch = new long[wordCount];
+    boolean hasLast = false;
+
+    for (int i = 0; i < runCount; i++) {
+      live[i] = next(runReaders.get(i), heads, i, scratch);
+    }
+
+    for (int i = 0; i < layerCount; i++) {
+      layerLive[i] = next(layerReaders.get(i), layerHeads, i, scratch);
+    }
+
+    while (true) {
+      int min = -1;
+
+      for (int i = 0; i < runCount; i++) {
+        if (live[i] && (min < 0 || StateFile.compare(heads, i * wordCount
+            , heads, min * wordCount, wordCount) < 0)) {
+          min = i;
+        }
+      }
+
+      if (min < 0) {
+        return;
+      }
+
+      System.arraycopy(heads, min * wordCount, state, 0, wordCount);
+      live[min] = next(runReaders.get(min), heads, min, scratch);
+
+      if (hasLast && StateFile.compare(state, 0, last, 0, wordCount) == 0) {
+        continue;
+      }
+
+      System.arraycopy(state, 0, last, 0, wordCount);
+      hasLast = true;
+
+      boolean seen = false;
+
+      for (int i = 0; i < layerCount && !seen; i++) {
+        int c = 1;
+
+        while (layerLive[i] && (c = StateFile.compare(layerHeads
+            , i * wordCount, state, 0, wordCount)) < 0) {
+          layerLive[i] = next(layerReaders.get(i), layerHeads, i, scratch);
+        }
+
+        seen = layerLive[i] && c == 0;
+      }
+
+      if (!seen) {
+        writer.write(state);
+      }
+    }
+  }
+
+  /**
+   * Read the next state of the given reader into its place in heads
+   * @return false if the reader has no more states
+   */
+  private boolean next(StateFile.Reader reader
+      , long[] heads
+      , int index
+      , long[] scratch) throws IOException {
+    if (!reader.next(scratch)) {
+      return false;
+    }
+
+    System.arraycopy(scratch, 0, heads, index * wordCount, wordCount);
+
+    return true;
+  }
+
+  /**
+   * Sort the buffer and write it out as a run without repeats
+   */
+  private void writeRun() throws IOException {
+    if (bufferCount == 0) {
+      return;
+    }
+
+    sort(0, bufferCount - 1);
+
+    File run = new File(directory, "run-" + runs.size());
+
+    try (StateFile.Writer writer = new StateFile.Writer(run, wordCount)) {
+      for (int i = 0; i < bufferCount; i++) {
+        if (i == 0 || StateFile.compare(buffer, i * wordCount
+            , buffer, (i - 1) * wordCount, wordCount) != 0) {
+          writer.write(buffer, i * wordCount);
+        }
+      }
+
+      runs.add(run);
+      runCounts.add(writer.getCount());
+    }
+
+    bufferCount = 0;
+  }
+
+  /**
+   * Quicksort of the states in the buffer from first to last inclusive.  The
+   * partition stops on states equal to the pivot, so the many repeats in a
+   * run do not make it slow
+   */
+  private void sort(int first, int last) {
+    while (first < last) {
+      System.arraycopy(buffer, ((first + last) >>> 1) * wordCount
+          , pivot, 0, wordCount);
+
+      int i = first;
+      int j = last;
+
+      while (i <= j) {
+        while (StateFile.compare(buffer, i * wordCount
+            , pivot, 0, wordCount) < 0) {
+          i++;
+        }
+
+        while (StateFile.compare(buffer, j * wordCount
+            , pivot, 0, wordCount) > 0) {
+          j--;
+        }
+
+        if (i <= j) {
+          swap(i++, j--);
+        }
+      }
+
+      // Recurse into the smaller side to keep the stack short
+      if (j - first < last - i) {
+        sort(first, j);
+        first = i;
+      }
+      else {
+        sort(i, last);
+        last = j;
+      }
+    }
+  }
+
+  private void swap(int a, int b) {
+    for (int w = 0; w < wordCount; w++) {
+      long temp = buffer[a * wordCount + w];
+
+      buffer[a * wordCount + w] = buffer[b * wordCount + w];
+      buffer[b * wordCount + w] = temp;
+    }
+  }
+
+  /**
+   * Delete all the files
+   */
+  @Override
+  public void close() {
+    for (File file : runs) {
+      file.delete();
+    }
+
+    for (File file : layers) {
+      file.delete();
+    }
+
+    directory.delete();
+  }
+
+}
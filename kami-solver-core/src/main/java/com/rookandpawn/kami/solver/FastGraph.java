@@ -2,55 +2,43 @@ package com.rookandpawn.kami.solver;
 
 /**
  * Implementation of a kami graph that is designed to evaluate an entire
- * solution at once very quickly
+ * solution at once very quickly.  It works on the compact form of the graph,
+ * so every array is as long as the number of live nodes
  */
-public class FastGraph {
+public class FastGraph extends AbstractGraphEvaluator {
 
-  private final int colorCount;
+  private final CompactGraph compact;
   private final byte[] nodes;
   private final short[] q;
-  private final short[][] edges;
-  private final Graph g;
-  private final short[] colorCounts;
-  private final short[] originalColorCounts;
-  private final int actualNodeCount;
-  private final int startingActiveColorCount;
+  private final int[] offsets;
+  private final short[] targets;
 
   private int qRead;
   private int qWrite;
 
-  public FastGraph(Graph g) {
-    this.g = g;
-    this.q = new short[g.getNodes().length * 2];
-    this.nodes = new byte[g.getNodes().length];
-    this.edges = g.getEdges();
-    this.colorCount = g.getColors().length;
-    this.colorCounts = new short[colorCount];
-    this.originalColorCounts = new short[colorCount];
-
-    for (byte color : g.getNodes()) {
-      if (color >= 0) {
-        originalColorCounts[color]++;
-      }
-    }
-
-    int activeColorCount = 0;
-
-    for (short count : originalColorCounts) {
-      if (count > 0) {
-        activeColorCount++;
-      }
-    }
+  // Nodes changed by each applied color change so they can be changed back
+  private short startNode;
+  private short[] changedNodes;
+  private int changedNodeCount;
+  private int[] changeStarts;
+  private byte[] changePrevColors;
+  private byte[] changeColors;
+  private int changeDepth;
 
-    this.startingActiveColorCount = activeColorCount;
-    this.actualNodeCount = g.getActualNodeCount();
+  public FastGraph(Graph g) {
+    super(g);
+    this.compact = new CompactGraph(g);
+    this.q = new short[compact.getNodeCount() * 2];
+    this.nodes = new byte[compact.getNodeCount()];
+    this.offsets = compact.getOffsets();
+    this.targets = compact.getTargets();
   }
 
   private void reset() {
     qRead = 0;
     qWrite = 0;
 
-    System.arraycopy(g.getNodes(), 0, nodes, 0, nodes.length);
+    System.arraycopy(compact.getColors(), 0, nodes, 0, nodes.length);
     System.arraycopy(originalColorCounts, 0, colorCounts, 0, colorCount);
   }
 
@@ -76,13 +64,84 @@ public class FastGraph {
     return qRead == qWrite;
   }
 
+  @Override
+  protected void start(short node, int maxDepth) {
+    reset();
+
+    startNode = compact.getCompactId(node);
+    changedNodeCount = 0;
+    changeDepth = 0;
+
+    if (changeStarts == null || changeStarts.length < maxDepth + 1) {
+      changeStarts = new int[maxDepth + 1];
+      changePrevColors = new byte[maxDepth];
+      changeColors = new byte[maxDepth];
+      changedNodes = new short[Math.max(1, maxDepth * nodes.length)];
+    }
+  }
+
+  @Override
+  protected int changeRegionColor(byte prevColor, byte color) {
+    changeStarts[changeDepth] = changedNodeCount;
+    changePrevColors[changeDepth] = prevColor;
+    changeColors[changeDepth] = color;
+    changeDepth++;
+
+    addToQ(startNode);
+
+    int nodesChanged = 0;
+
+    while (!qIsEmpty()) {
+      short curr = pollQ();
+
+      if (nodes[curr] == prevColor) {
+        nodes[curr] = color;
+        changedNodes[changedNodeCount++] = curr;
+
+        nodesChanged++;
+
+        for (int e = offsets[curr]; e < offsets[curr + 1]; e++) {
+          short n = targets[e];
+
+          if (prevColor == nodes[n]) {
+            addToQ(n);
+          }
+        }
+      }
+    }
+
+    colorCounts[prevColor] -= nodesChanged;
+    colorCounts[color] += nodesChanged;
+
+    return nodesChanged;
+  }
+
+  @Override
+  protected void undoRegionColor() {
+    changeDepth--;
+
+    byte prevColor = changePrevColors[changeDepth];
+    int start = changeStarts[changeDepth];
+    int nodesChanged = changedNodeCount - start;
+
+    for (int i = start; i < changedNodeCount; i++) {
+      nodes[changedNodes[i]] = prevColor;
+    }
+
+    changedNodeCount = start;
+
+    colorCounts[prevColor] += nodesChanged;
+    colorCounts[changeColors[changeDepth]] -= nodesChanged;
+  }
+
+  @Override
   public int evaluate(short node, byte[] colorSeq, byte finalColor) {
 
     reset();
 
-    byte oldColor = nodes[node];
+    short start = compact.getCompactId(node);
 
-    byte prevColor = oldColor;
+    byte prevColor = nodes[start];
 
     int nodesChanged;
     int prevNodesChanges = 0;
@@ -116,7 +175,7 @@ public class FastGraph {
 
       //System.out.print(g.getNameForColor(color) + ",");
 
-      addToQ(node);
+      addToQ(start);
 
       nodesChanged = 0;
 
@@ -132,7 +191,9 @@ public class FastGraph {
           colorCounts[prevColor]--;
           colorCounts[color]++;
 
-          for (short n : edges[curr]) {
+          for (int e = offsets[curr]; e < offsets[curr + 1]; e++) {
+            short n = targets[e];
+
             if (prevColor == nodes[n]) {
               addToQ(n);
             }
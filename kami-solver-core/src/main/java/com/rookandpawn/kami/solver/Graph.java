@@ -18,6 +18,13 @@ import com.google.common.collect.Sets;
 public class Graph {
 
 
+  /**
+   * Working space for changeNodeColor, one per thread so searches running in
+   * parallel never share it
+   */
+  private static final ThreadLocal<Scratch> SCRATCH
+      = ThreadLocal.withInitial(Scratch::new);
+
   public static Builder builder() {
     return new Builder();
   }
@@ -26,24 +33,30 @@ public class Graph {
   private final int actualColorCount;
   private final byte[] nodes;
   private final short[][] edges;
+  private final long[][] edgeMasks;
   private final String[] colors;
   private final short[] colorCounts;
   private final Map<String,Byte> colorsByName;
+  private final long zobristHash;
 
   private Graph(int actualNodeCount
       , byte[] nodes
       , short[][] edges
+      , long[][] edgeMasks
       , String[] colors
       , short[] colorCounts
       , int actualColorCount
-      , Map<String,Byte> colorByName) {
+      , Map<String,Byte> colorByName
+      , long zobristHash) {
     this.actualNodeCount = actualNodeCount;
     this.nodes = nodes;
     this.edges = edges;
+    this.edgeMasks = edgeMasks;
     this.colors = colors;
     this.actualColorCount = actualColorCount;
     this.colorCounts = colorCounts;
     this.colorsByName = colorByName;
+    this.zobristHash = zobristHash;
   }
 
   private Graph(Builder builder) {
@@ -87,6 +100,37 @@ public class Graph {
       edges[node] = neighborsArray;
     });
 
+    this.edgeMasks = createEdgeMasks(edges);
+    this.zobristHash = Zobrist.hash(nodes);
+  }
+
+  /**
+   * Create the bit mask form of the given edges if the graph is small enough
+   * for bit masks to pay off
+   * @param edges
+   * @return the neighbor masks of each node or null for large graphs
+   */
+  private static long[][] createEdgeMasks(short[][] edges) {
+    if (edges.length > BitGraph.MAX_NODE_COUNT) {
+      return null;
+    }
+
+    long[][] result = new long[edges.length][];
+    int wordCount = Bits.wordCount(edges.length);
+
+    for (int node = 0; node < edges.length; node++) {
+      if (edges[node] == null) {
+        continue;
+      }
+
+      result[node] = new long[wordCount];
+
+      for (short neighbor : edges[node]) {
+        Bits.set(result[node], neighbor);
+      }
+    }
+
+    return result;
   }
 
 
@@ -112,6 +156,14 @@ public class Graph {
     return edges;
   }
 
+  /**
+   * @return the neighbors of each node as bit masks or null if this graph is
+   * too large to use bit masks
+   */
+  public long[][] getEdgeMasks() {
+    return edgeMasks;
+  }
+
   /**
    * @return the colors
    */
@@ -182,6 +234,9 @@ public class Graph {
       int newActualColorCount = 0;
       byte[] newNodes = new byte[nodes.length];
       short[][] newEdges = new short[edges.length][];
+      long[][] newEdgeMasks = edgeMasks == null
+          ? null
+          : new long[edgeMasks.length][];
       short[] newColorCounts = new short[colorCounts.length];
 
       Arrays.fill(newNodes, (byte)-1);
@@ -201,21 +256,104 @@ public class Graph {
         newColorCounts[color]++;
         newNodes[node] = color;
         newEdges[node] = edges[node];
+
+        if (newEdgeMasks != null) {
+          newEdgeMasks[node] = edgeMasks[node];
+        }
       }
 
       result.add(new Graph(
           newActualNodeCount
           , newNodes
           , newEdges
+          , newEdgeMasks
           , colors
           , newColorCounts
           , actualColorCount
-          , colorsByName));
+          , colorsByName
+          , Zobrist.hash(newNodes)));
     }
 
     return result;
   }
 
+  /**
+   * Create a new graph with the given nodes taken out.  The rest of the nodes
+   * keep their ids
+   * @param removed true for each node id to take out
+   * @return
+   */
+  Graph removeNodes(boolean[] removed) {
+    int newActualNodeCount = actualNodeCount;
+    byte[] newNodes = nodes.clone();
+    short[][] newEdges = edges.clone();
+    long[][] newEdgeMasks = edgeMasks == null ? null : edgeMasks.clone();
+    short[] newColorCounts = colorCounts.clone();
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (nodes[node] < 0 || !removed[node]) {
+        continue;
+      }
+
+      newActualNodeCount--;
+      newColorCounts[nodes[node]]--;
+      newNodes[node] = -1;
+      newEdges[node] = null;
+
+      if (newEdgeMasks != null) {
+        newEdgeMasks[node] = null;
+      }
+    }
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (newNodes[node] < 0) {
+        continue;
+      }
+
+      short[] neighbors = edges[node];
+      int keptCount = 0;
+
+      for (short neighbor : neighbors) {
+        if (!removed[neighbor]) {
+          keptCount++;
+        }
+      }
+
+      if (keptCount == neighbors.length) {
+        continue;
+      }
+
+      short[] kept = new short[keptCount];
+      int index = 0;
+
+      for (short neighbor : neighbors) {
+        if (!removed[neighbor]) {
+          kept[index++] = neighbor;
+        }
+        else if (newEdgeMasks != null) {
+          if (newEdgeMasks[node] == edgeMasks[node]) {
+            newEdgeMasks[node] = edgeMasks[node].clone();
+          }
+
+          Bits.unset(newEdgeMasks[node], neighbor);
+        }
+      }
+
+      newEdges[node] = kept;
+    }
+
+    return new Graph(
+        newActualNodeCount
+        , newNodes
+        , newEdges
+        , newEdgeMasks
+        , colors
+        , newColorCounts
+        , actualColorCount
+        , colorsByName
+        , Zobrist.hash(newNodes));
+  }
+
   /**
    * Create a new graph that is the result of changeing the given node to the
    * given color
@@ -235,105 +373,252 @@ public class Graph {
    * @return 
    */
   public Graph changeNodeColor(short nodeId, byte color) {
-    byte[] newNodes = new byte[nodes.length];
+    return edgeMasks != null
+        ? changeNodeColorWithMasks(nodeId, color)
+        : changeNodeColorWithMarks(nodeId, color);
+  }
 
+  /**
+   * Version of changeNodeColor for small graphs that merges neighborhoods a
+   * word at a time
+   * @param nodeId
+   * @param color
+   * @return
+   */
+  private Graph changeNodeColorWithMasks(short nodeId, byte color) {
+    byte[] newNodes = new byte[nodes.length];
     System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
 
     newNodes[nodeId] = color;
 
     short[][] newEdges = new short[edges.length][];
-
     System.arraycopy(edges, 0, newEdges, 0, edges.length);
 
-    short[] neighbors = edges[nodeId];
+    long[][] newEdgeMasks = new long[edgeMasks.length][];
+    System.arraycopy(edgeMasks, 0, newEdgeMasks, 0, edgeMasks.length);
 
     short[] newColorCounts = new short[colorCounts.length];
-
     System.arraycopy(colorCounts, 0, newColorCounts, 0, colorCounts.length);
 
-    Set<Short> removedNodes = Sets.newHashSet();
-    Set<Short> newNeighborsSet = Sets.newHashSet();
-    Map<Short,List<Short>> changedNeighbors = Maps.newHashMap();
+    int wordCount = Bits.wordCount(nodes.length);
+    Scratch scratch = SCRATCH.get().prepare(nodes.length);
+    long[] removed = scratch.removedBits;
+    long[] touched = scratch.touchedBits;
+    long[] newNeighbors = new long[wordCount];
+
+    Bits.clear(removed);
+    Bits.clear(touched);
 
     byte oldColor = nodes[nodeId];
 
-    newColorCounts[oldColor]--;
+    long newZobristHash = zobristHash
+        ^ Zobrist.nodeKey(nodeId, oldColor)
+        ^ Zobrist.nodeKey(nodeId, color);
 
+    newColorCounts[oldColor]--;
     newColorCounts[color]++;
 
-    for (int ndx = 0; ndx < neighbors.length; ndx++) {
-      short neighbor = neighbors[ndx];
-      byte nColor = nodes[neighbor];
+    int removedCount = 0;
 
-      if (nColor == color) {
+    for (short neighbor : edges[nodeId]) {
+      if (nodes[neighbor] == color) {
+        Bits.set(removed, neighbor);
+        removedCount++;
         newNodes[neighbor] = -1;
-        removedNodes.add(neighbor);
+        newEdges[neighbor] = null;
+        newEdgeMasks[neighbor] = null;
         newColorCounts[color]--;
-      }
-      else {
-        newNeighborsSet.add(neighbor);
+        newZobristHash ^= Zobrist.nodeKey(neighbor, color)
+            ^ Zobrist.mergeKey(neighbor, nodeId);
+
+        long[] neighborMask = edgeMasks[neighbor];
+
+        for (int w = 0; w < wordCount; w++) {
+          touched[w] |= neighborMask[w];
+        }
       }
     }
-    
-    for (Short neighbor : removedNodes) {
 
-      newEdges[neighbor] = null;
+    // Nodes that were next to an absorbed node now border the changed node
+    // instead
+    long[] nodeMask = edgeMasks[nodeId];
 
-      for (short nn : edges[neighbor]) {
-        if (removedNodes.contains(nn) || nn == nodeId) {
-          continue;
-        }
+    for (int w = 0; w < wordCount; w++) {
+      touched[w] &= ~removed[w];
+      newNeighbors[w] = (nodeMask[w] | touched[w]) & ~removed[w];
+    }
 
-        newNeighborsSet.add(nn);
+    Bits.unset(touched, nodeId);
+    Bits.unset(newNeighbors, nodeId);
 
-        List<Short> newNeighborNeighbors = Lists.newArrayList(nodeId);
+    newEdges[nodeId] = Bits.toShortArray(newNeighbors);
+    newEdgeMasks[nodeId] = newNeighbors;
 
-        for (short nnn : edges[nn]) {
-          if (!removedNodes.contains(nnn) || nnn == nodeId) {
-            newNeighborNeighbors.add(nnn);
-          }
+    for (int w = 0; w < wordCount; w++) {
+      long word = touched[w];
+
+      while (word != 0) {
+        int node = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+
+        long[] oldMask = edgeMasks[node];
+        long[] newMask = new long[wordCount];
+
+        for (int nw = 0; nw < wordCount; nw++) {
+          newMask[nw] = oldMask[nw] & ~removed[nw];
         }
 
+        Bits.set(newMask, nodeId);
 
-        changedNeighbors.put(nn, newNeighborNeighbors);
+        newEdgeMasks[node] = newMask;
+        newEdges[node] = Bits.toShortArray(newMask);
       }
-
     }
 
-    short[] newNeighbors = new short[newNeighborsSet.size()];
+    return new Graph(this.actualNodeCount - removedCount
+        , newNodes
+        , newEdges
+        , newEdgeMasks
+        , colors
+        , newColorCounts
+        , actualColorCount
+        , colorsByName
+        , newZobristHash);
+  }
+
+  /**
+   * Version of changeNodeColor for graphs too large for bit masks.  Nodes are
+   * marked in the calling thread's scratch arrays instead of being collected
+   * in sets, so the only allocations are the arrays of the new graph
+   * @param nodeId
+   * @param color
+   * @return
+   */
+  private Graph changeNodeColorWithMarks(short nodeId, byte color) {
+    byte[] newNodes = new byte[nodes.length];
+
+    System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+
+    newNodes[nodeId] = color;
+
+    short[][] newEdges = new short[edges.length][];
+
+    System.arraycopy(edges, 0, newEdges, 0, edges.length);
+
+    short[] newColorCounts = new short[colorCounts.length];
+
+    System.arraycopy(colorCounts, 0, newColorCounts, 0, colorCounts.length);
+
+    Scratch scratch = SCRATCH.get().prepare(nodes.length);
+
+    int[] marks = scratch.marks;
+    int removedMark = scratch.nextMark();
+    int neighborMark = scratch.nextMark();
+    int touchedMark = scratch.nextMark();
+
+    byte oldColor = nodes[nodeId];
 
-    newEdges[nodeId] = newNeighbors;
+    long newZobristHash = zobristHash
+        ^ Zobrist.nodeKey(nodeId, oldColor)
+        ^ Zobrist.nodeKey(nodeId, color);
+
+    newColorCounts[oldColor]--;
+
+    newColorCounts[color]++;
+
+    short[] neighbors = edges[nodeId];
+    int removedCount = 0;
+
+    for (short neighbor : neighbors) {
+      if (nodes[neighbor] == color) {
+        marks[neighbor] = removedMark;
+        removedCount++;
+        newNodes[neighbor] = -1;
+        newEdges[neighbor] = null;
+        newColorCounts[color]--;
+        newZobristHash ^= Zobrist.nodeKey(neighbor, color)
+            ^ Zobrist.mergeKey(neighbor, nodeId);
+      }
+    }
 
-    int mainIndex = 0;
+    short[] newNeighbors = scratch.newNeighbors;
+    short[] touched = scratch.touched;
+    int newNeighborCount = 0;
+    int touchedCount = 0;
 
-    for (Short n : newNeighborsSet) {
-      newNeighbors[mainIndex++] = n;
+    marks[nodeId] = neighborMark;
 
-      List<Short> newNeighborNeighborsList = changedNeighbors.get(n);
+    for (short neighbor : neighbors) {
+      if (marks[neighbor] != removedMark) {
+        marks[neighbor] = neighborMark;
+        newNeighbors[newNeighborCount++] = neighbor;
+      }
+    }
 
-      // This happens for existing neighbors that don't change
-      if (newNeighborNeighborsList == null) {
+    // Nodes that were next to an absorbed node now border the changed node
+    // instead
+    for (short neighbor : neighbors) {
+      if (marks[neighbor] != removedMark) {
         continue;
       }
 
-      short[] newNeighborNeighbors = new short[newNeighborNeighborsList.size()];
+      for (short nn : edges[neighbor]) {
+        int mark = marks[nn];
 
-      newEdges[n] = newNeighborNeighbors;
+        if (mark == removedMark || mark == touchedMark || nn == nodeId) {
+          continue;
+        }
 
-      int neighborIndex = 0;
+        if (mark != neighborMark) {
+          newNeighbors[newNeighborCount++] = nn;
+        }
 
-      for (Short nn : newNeighborNeighborsList) {
-        newNeighborNeighbors[neighborIndex++] = nn;
+        marks[nn] = touchedMark;
+        touched[touchedCount++] = nn;
       }
     }
 
-    return new Graph(this.actualNodeCount - removedNodes.size()
+    newEdges[nodeId] = Arrays.copyOf(newNeighbors, newNeighborCount);
+
+    for (int t = 0; t < touchedCount; t++) {
+      short node = touched[t];
+      short[] oldRow = edges[node];
+      int keptCount = 0;
+      boolean hasNodeId = false;
+
+      for (short nn : oldRow) {
+        if (marks[nn] != removedMark) {
+          keptCount++;
+          hasNodeId |= nn == nodeId;
+        }
+      }
+
+      short[] newRow = new short[hasNodeId ? keptCount : keptCount + 1];
+      int index = 0;
+
+      // The changed node takes the place of the first absorbed neighbor
+      for (short nn : oldRow) {
+        if (marks[nn] != removedMark) {
+          newRow[index++] = nn;
+        }
+        else if (!hasNodeId) {
+          newRow[index++] = nodeId;
+          hasNodeId = true;
+        }
+      }
+
+      newEdges[node] = newRow;
+    }
+
+    return new Graph(this.actualNodeCount - removedCount
         , newNodes
         , newEdges
+        , null
         , colors
         , newColorCounts
         , actualColorCount
-        , colorsByName);
+        , colorsByName
+        , newZobristHash);
   }
 
   /**
@@ -386,6 +671,15 @@ public class Graph {
     return true;
   }
 
+  /**
+   * @return hash of the node colors and the merges that produced this graph.
+   * Graphs reached by applying the same moves in a different order have the
+   * same hash
+   */
+  public long getZobristHash() {
+    return zobristHash;
+  }
+
   /**
    * @return the actualColorCount
    */
@@ -485,4 +779,49 @@ public class Graph {
     
   }
 
+  /**
+   * Reusable arrays for changing a node's color.  A node is marked by storing
+   * the current mark in its slot, so starting over only takes a new mark
+   * instead of clearing the array
+   */
+  private static final class Scratch {
+
+    private int mark;
+    private int[] marks = new int[0];
+    private short[] newNeighbors;
+    private short[] touched;
+    private long[] removedBits;
+    private long[] touchedBits;
+
+    /**
+     * Make sure the arrays can hold a graph with the given number of node ids
+     * @param nodeCount
+     * @return this
+     */
+    Scratch prepare(int nodeCount) {
+      if (marks.length < nodeCount) {
+        this.mark = 0;
+        this.marks = new int[nodeCount];
+        this.newNeighbors = new short[nodeCount];
+        this.touched = new short[nodeCount];
+        this.removedBits = new long[Bits.wordCount(nodeCount)];
+        this.touchedBits = new long[Bits.wordCount(nodeCount)];
+      }
+
+      return this;
+    }
+
+    /**
+     * @return a mark no node holds yet
+     */
+    int nextMark() {
+      if (mark == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        mark = 0;
+      }
+
+      return ++mark;
+    }
+  }
+
 }
@@ -0,0 +1,49 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Definition of a class that can quickly test a sequence of color changes
+ * applied repeatedly to a single node of a graph
+ */
+public interface GraphEvaluator {
+
+  /**
+   * Create the evaluator best suited to the size of the given graph
+   * @param g
+   * @return
+   */
+  static GraphEvaluator forGraph(Graph g) {
+    return g.getNodes().length <= BitGraph.MAX_NODE_COUNT
+        ? new BitGraph(g)
+        : new FastGraph(g);
+  }
+
+  /**
+   * Apply the given sequence of relative color changes to the given node
+   * @param node node to change repeatedly
+   * @param colorSeq offsets of each new color from the previous color
+   * @param finalColor color the sequence must end in or -1 for any color
+   * @return the length of the sequence if it solves the graph or else the
+   * index of the first color in the sequence that needs to change
+   */
+  int evaluate(short node, byte[] colorSeq, byte finalColor);
+
+  /**
+   * Search every sequence of relative color changes for the given node.  The
+   * sequences are tried in the same order as counting up through them and
+   * skipping ahead by the results of evaluate, so the solution found is the
+   * same
+   * @param node node to change repeatedly
+   * @param solution sequence to search with.  Its length is the number of
+   *        moves, and it holds the solution if one is found
+   * @param finalColor color the sequence must end in or -1 for any color
+   * @param abandon checked as the search goes to stop early
+   * @return true if a solution was found
+   */
+  boolean findSolution(short node
+      , byte[] solution
+      , byte finalColor
+      , BooleanSupplier abandon);
+
+}
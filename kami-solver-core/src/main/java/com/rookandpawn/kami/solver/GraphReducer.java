@@ -0,0 +1,107 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * Shrinks a connected graph before searching it for a solution that ends in
+ * a given color.
+ * <p>
+ * A node of the final color whose neighbors are all joined to each other can
+ * be left out.  It never holds the rest of the graph together, so leaving it
+ * out changes nothing about how the other nodes merge, and a solution without
+ * it is never longer.  Going the other way, the last time a neighbor's
+ * region changes color it changes to the final color and takes the node
+ * along, so a solution of the smaller graph solves the whole graph as it is.
+ * Leaves of the final color are the most common case.  Taking a node out can
+ * leave another one with neighbors that are all joined, so the nodes are
+ * checked until none is left out.
+ * <p>
+ * Nodes keep their ids, so nothing needs to be done to a solution of the
+ * smaller graph to use it on the original one
+ */
+final class GraphReducer {
+
+  private GraphReducer() {}
+
+  /**
+   * @param graph connected graph where no two neighbors share a color
+   * @param finalColor color the solution has to end with
+   * @return a graph with the same shortest solutions ending in the given color
+   * as the given graph, or the given graph itself if no node can be left out
+   */
+  static Graph reduce(Graph graph, byte finalColor) {
+    if (finalColor < 0) {
+      return graph;
+    }
+
+    byte[] nodes = graph.getNodes();
+    boolean[] removed = new boolean[nodes.length];
+    int remaining = graph.getActualNodeCount();
+    boolean changed = true;
+
+    while (changed) {
+      changed = false;
+
+      for (short node = 0; node < nodes.length && remaining > 1; node++) {
+        if (nodes[node] == finalColor && !removed[node]
+            && isAbsorbedForFree(graph, node, removed)) {
+          removed[node] = true;
+          remaining--;
+          changed = true;
+        }
+      }
+    }
+
+    return remaining == graph.getActualNodeCount()
+        ? graph
+        : graph.removeNodes(removed);
+  }
+
+  /**
+   * @param graph
+   * @param node
+   * @param removed nodes already left out
+   * @return true if the given node has neighbors left, none of them share its
+   * color and every two of them are neighbors of each other
+   */
+  private static boolean isAbsorbedForFree(Graph graph
+      , short node
+      , boolean[] removed) {
+    byte[] nodes = graph.getNodes();
+    short[][] edges = graph.getEdges();
+    boolean hasNeighbor = false;
+
+    for (short n1 : edges[node]) {
+      if (removed[n1]) {
+        continue;
+      }
+
+      if (nodes[n1] == nodes[node]) {
+        return false;
+      }
+
+      hasNeighbor = true;
+
+      for (short n2 : edges[node]) {
+        if (n2 != n1 && !removed[n2] && !isNeighbor(graph, n1, n2)) {
+          return false;
+        }
+      }
+    }
+
+    return hasNeighbor;
+  }
+
+  private static boolean isNeighbor(Graph graph, short n1, short n2) {
+    if (graph.getEdgeMasks() != null) {
+      return Bits.get(graph.getEdgeMasks()[n1], n2);
+    }
+
+    for (short n : graph.getEdges()[n1]) {
+      if (n == n2) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+}
@@ -0,0 +1,257 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+
+/**
+ * Iterative deepening A* over the states reached by repeatedly changing the
+ * color of a single starting node.  Every state is scored with an admissible
+ * lower bound on the moves it still needs, so color sequences that cannot
+ * finish in time are dropped without playing them out
+ */
+public class IdaStarSearch implements ConnectedGraphSolver {
+
+  private final Graph graph;
+  private final PathSet paths;
+  private final short[][] edges;
+  private final int colorCount;
+  private final short center;
+
+  private final LowerBounds bounds;
+
+  private byte[][] states;
+  private short[][] regions;
+  private byte[] moveColors;
+  private int nextThreshold;
+  private CancellationToken token;
+
+  public IdaStarSearch(Graph graph) {
+    this(graph, new PathSet(graph));
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   */
+  public IdaStarSearch(Graph graph, PathSet paths) {
+    this.graph = graph;
+    this.paths = paths;
+    this.edges = graph.getEdges();
+    this.colorCount = graph.getColors().length;
+    this.center = paths.getCenterNode();
+    this.bounds = new LowerBounds(graph);
+  }
+
+  @Override
+  public Optional<List<Move>> go(int solutionLength
+      , byte finalColor
+      , CancellationToken token) {
+
+    // Handle graphs with a single node
+    if (graph.getActualNodeCount() == 1) {
+      for (short n = 0; n < graph.getNodes().length; n++) {
+        byte color = graph.getNodes()[n];
+        if (color < 0) {
+          continue;
+        }
+
+        if (finalColor >= 0 && color != finalColor) {
+          return solutionLength == 0
+              ? Optional.absent()
+              : Optional.of(ImmutableList.of(graph.createMove(n, finalColor)));
+        }
+
+        return Optional.of(Collections.<Move>emptyList());
+      }
+    }
+
+    List<Short> startNodes = getStartNodes(solutionLength);
+
+    if (startNodes.isEmpty()) {
+      return Optional.absent();
+    }
+
+    states = new byte[solutionLength + 1][];
+    regions = new short[solutionLength + 1][];
+    moveColors = new byte[solutionLength];
+
+    for (int depth = 0; depth <= solutionLength; depth++) {
+      states[depth] = new byte[graph.getNodes().length];
+      regions[depth] = new short[graph.getNodes().length];
+    }
+
+    this.token = token;
+
+    int threshold = Integer.MAX_VALUE;
+
+    for (short node : startNodes) {
+      threshold = Math.min(threshold
+          , bounds.getRegionBound(graph.getNodes(), node, finalColor));
+    }
+
+    while (threshold <= solutionLength && !token.isCancelled()) {
+      nextThreshold = Integer.MAX_VALUE;
+
+      for (short node : startNodes) {
+        System.arraycopy(graph.getNodes(), 0, states[0], 0, states[0].length);
+
+        int moveCount = search(0, threshold, node, finalColor);
+
+        if (moveCount >= 0) {
+          List<Move> result = Lists.newArrayList();
+
+          for (int i = 0; i < moveCount; i++) {
+            result.add(graph.createMove(node, moveColors[i]));
+          }
+
+          return Optional.of(result);
+        }
+      }
+
+      threshold = nextThreshold;
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * @param solutionLength
+   * @return all the nodes that could start a solution of the given length in
+   * breadth first order from the center of the graph
+   */
+  private List<Short> getStartNodes(int solutionLength) {
+    List<Short> result = Lists.newArrayList();
+    Queue<Short> q = Queues.newArrayDeque();
+    Set<Short> seen = Sets.newHashSet();
+
+    q.add(center);
+
+    while (!q.isEmpty()) {
+      short node = q.poll();
+
+      if (!seen.add(node)) {
+        continue;
+      }
+
+      if (paths.getMaxDistanceFrom(node) <= solutionLength) {
+        result.add(node);
+      }
+
+      for (short n : edges[node]) {
+        q.add(n);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Depth first search of the moves from the given depth that stays within
+   * the given threshold
+   * @return the number of moves in the solution found or -1 if none was found
+   */
+  private int search(int depth, int threshold, short start, byte finalColor) {
+    if (token.isCancelled()) {
+      return -1;
+    }
+
+    byte[] colors = states[depth];
+
+    int bound = bounds.getRegionBound(colors, start, finalColor);
+
+    if (bound == 0) {
+      return depth;
+    }
+
+    if (depth + bound > threshold) {
+      if (depth + bound < nextThreshold) {
+        nextThreshold = depth + bound;
+      }
+      return -1;
+    }
+
+    // Remember the region and the colors that border it before the scratch
+    // arrays get reused by deeper levels
+    short[] region = regions[depth];
+    int size = bounds.getRegionSize();
+
+    System.arraycopy(bounds.getRegion(), 0, region, 0, size);
+
+    byte[] candidates = getCandidateColors(finalColor);
+
+    byte[] next = states[depth + 1];
+
+    for (byte color : candidates) {
+      System.arraycopy(colors, 0, next, 0, colors.length);
+
+      for (int i = 0; i < size; i++) {
+        next[region[i]] = color;
+      }
+
+      moveColors[depth] = color;
+
+      int result = search(depth + 1, threshold, start, finalColor);
+
+      if (result >= 0) {
+        return result;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Get the colors worth changing the region to. These are the colors of the
+   * region's neighbors with the most common first or the final color if the
+   * region already covers the graph
+   * @param finalColor
+   * @return
+   */
+  private byte[] getCandidateColors(byte finalColor) {
+    int[] adjacentColorCounts = bounds.getAdjacentColorCounts();
+    int candidateCount = 0;
+
+    for (int count : adjacentColorCounts) {
+      if (count > 0) {
+        candidateCount++;
+      }
+    }
+
+    if (candidateCount == 0) {
+      return new byte[] { finalColor };
+    }
+
+    byte[] result = new byte[candidateCount];
+    int index = 0;
+
+    for (byte color = 0; color < colorCount; color++) {
+      if (adjacentColorCounts[color] > 0) {
+        result[index++] = color;
+      }
+    }
+
+    // Insertion sort by descending neighbor count
+    for (int i = 1; i < result.length; i++) {
+      byte color = result[i];
+      int j = i - 1;
+
+      while (j >= 0
+          && adjacentColorCounts[result[j]] < adjacentColorCounts[color]) {
+        result[j + 1] = result[j];
+        j--;
+      }
+
+      result[j + 1] = color;
+    }
+
+    return result;
+  }
+}
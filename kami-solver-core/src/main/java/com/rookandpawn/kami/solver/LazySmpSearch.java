@@ -0,0 +1,109 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * Several searches of the same graph run at once, one per worker, sharing a
+ * single transposition table.  Each worker tries its extra moves and start
+ * nodes in a different order, so they soon work on different parts of the
+ * search, and whatever one rules out the others skip.  The first worker to
+ * find a solution stops the rest.  Unlike splitting the search into tasks,
+ * nothing has to be handed between workers, and the memory used is the fixed
+ * size of the table however many graphs are visited
+ */
+public class LazySmpSearch {
+
+  private final ForkJoinPool pool;
+  private final List<Search> searches = Lists.newArrayList();
+
+  /**
+   * Create a search with a dumb search worker for each thread of the pool
+   * @param graph graph to solve
+   * @param pool pool to run the workers on
+   */
+  public LazySmpSearch(Graph graph, ForkJoinPool pool) {
+    this(graph, SolverEngine.DUMB, pool, pool.getParallelism()
+        , new TranspositionTable());
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param engine engine for the workers to solve connected graphs with
+   * @param pool pool to run the workers on
+   * @param workerCount number of workers, which should be no more than the
+   *        threads of the pool since a worker only starts once a thread is
+   *        free
+   * @param transpositionTable table for the workers to share
+   */
+  public LazySmpSearch(Graph graph
+      , SolverEngine engine
+      , ForkJoinPool pool
+      , int workerCount
+      , TranspositionTable transpositionTable) {
+    this.pool = pool;
+
+    for (int worker = 0; worker < workerCount; worker++) {
+      searches.add(new Search(graph, engine, transpositionTable, worker));
+    }
+  }
+
+  public Optional<List<Move>> go(int rawMoveCount) {
+    return go(rawMoveCount, new CancellationToken());
+  }
+
+  /**
+   * Search for a solution with at most the given number of moves
+   * @param rawMoveCount
+   * @param token token to stop the search early
+   * @return the first solution a worker found or absent if there is none or
+   * the token was cancelled first
+   * @throws SearchLimitException if every worker's engine gave up
+   */
+  public Optional<List<Move>> go(int rawMoveCount, CancellationToken token) {
+    CancellationToken workerToken = token.createChild();
+    AtomicReference<List<Move>> result = new AtomicReference<>();
+    List<ForkJoinTask<?>> tasks = Lists.newArrayList();
+
+    for (Search search : searches) {
+      tasks.add(pool.submit(() -> {
+        if (workerToken.isCancelled()) {
+          return;
+        }
+
+        Optional<List<Move>> solution = search.go(rawMoveCount, workerToken);
+
+        if (solution.isPresent()
+            && result.compareAndSet(null, solution.get())) {
+          workerToken.cancel();
+        }
+      }));
+    }
+
+    for (ForkJoinTask<?> task : tasks) {
+      task.quietlyJoin();
+    }
+
+    // Each worker searches everything, so one that ran to the end decides
+    // the search even if the others gave up
+    if (result.get() == null) {
+      boolean decided = false;
+
+      for (ForkJoinTask<?> task : tasks) {
+        decided |= !task.isCompletedAbnormally();
+      }
+
+      if (!decided && !tasks.isEmpty()) {
+        tasks.get(0).join();
+      }
+    }
+
+    return Optional.fromNullable(result.get());
+  }
+
+}
@@ -0,0 +1,268 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+
+/**
+ * Lower bounds on the number of moves a graph still needs, all found in time
+ * linear in the size of the graph.  None of them ever overestimates, so a
+ * graph whose bound is more than the moves left can be given up on without
+ * searching it.
+ * <p>
+ * For any moves at all there are two bounds.  Each move takes at most one
+ * color off the board, so every color but the final one needs a move.  A move
+ * merges a region with some of its neighbors, which shortens any shortest
+ * path by at most two, so the graph needs at least half its diameter.
+ * <p>
+ * When every move changes the region around one start node the bound is
+ * tighter: a node d moves away from the region cannot be absorbed before move
+ * d, and each color needs its own move, so if k colors are found d or more
+ * moves away, at least d - 1 + k moves are needed.  This covers the number of
+ * colors left (d = 1) and the distance to the farthest node (the largest d)
+ */
+public class LowerBounds {
+
+  /**
+   * @param graph
+   * @param finalColor color the solution ends with or -1 for any
+   * @return the fewest moves any solution of the given graph can have
+   */
+  public static int forGraph(Graph graph, byte finalColor) {
+    return Math.max(getColorBound(graph, finalColor)
+        , getDiameterBound(graph));
+  }
+
+  /**
+   * @param graph
+   * @param finalColor color the solution ends with or -1 for any
+   * @return the number of colors the solution has to take off the board
+   */
+  public static int getColorBound(Graph graph, byte finalColor) {
+    boolean[] present = new boolean[graph.getColors().length];
+    int result = 0;
+
+    for (byte color : graph.getNodes()) {
+      if (color >= 0 && !present[color]) {
+        present[color] = true;
+        result++;
+      }
+    }
+
+    return finalColor < 0 || present[finalColor]
+        ? Math.max(0, result - 1)
+        : result;
+  }
+
+  /**
+   * Estimate the diameter of the graph by finding the farthest node from any
+   * node and then the farthest node from that one.  The estimate is the
+   * length of a real shortest path, so it is never more than the diameter
+   * @param graph
+   * @return half the estimated diameter rounded up, which for a graph in
+   * pieces is that of the piece with the lowest node id
+   */
+  public static int getDiameterBound(Graph graph) {
+    byte[] nodes = graph.getNodes();
+    short[][] edges = graph.getEdges();
+    short start = -1;
+
+    for (short node = 0; node < nodes.length && start < 0; node++) {
+      if (nodes[node] >= 0) {
+        start = node;
+      }
+    }
+
+    if (start < 0) {
+      return 0;
+    }
+
+    int[] dist = new int[nodes.length];
+    short[] queue = new short[nodes.length];
+
+    short far = farthestFrom(start, edges, dist, queue);
+    int diameter = dist[farthestFrom(far, edges, dist, queue)];
+
+    return (diameter + 1) / 2;
+  }
+
+  /**
+   * Breadth first search from the given node
+   * @return the last node reached, with the distances left in dist
+   */
+  private static short farthestFrom(short start
+      , short[][] edges
+      , int[] dist
+      , short[] queue) {
+    Arrays.fill(dist, -1);
+
+    int head = 0;
+    int tail = 0;
+
+    dist[start] = 0;
+    queue[tail++] = start;
+
+    while (head < tail) {
+      short node = queue[head++];
+
+      for (short n : edges[node]) {
+        if (dist[n] < 0) {
+          dist[n] = dist[node] + 1;
+          queue[tail++] = n;
+        }
+      }
+    }
+
+    return queue[tail - 1];
+  }
+
+  private final short[][] edges;
+  private final int colorCount;
+
+  private final int[] dist;
+  private final short[] order;
+  private final int[] maxColorDist;
+  private final int[] adjacentColorCounts;
+  private int regionSize;
+
+  /**
+   * Create the working space for finding region bounds on the given graph and
+   * graphs made from it by changing node colors
+   * @param graph
+   */
+  public LowerBounds(Graph graph) {
+    this.edges = graph.getEdges();
+    this.colorCount = graph.getColors().length;
+
+    int nodeCount = graph.getNodes().length;
+
+    this.dist = new int[nodeCount];
+    this.order = new short[nodeCount];
+    this.maxColorDist = new int[colorCount];
+    this.adjacentColorCounts = new int[colorCount];
+  }
+
+  /**
+   * Calculate a lower bound on the number of moves needed to solve the graph
+   * with the given colors by changing the region around the given node.  As a
+   * side effect the region is left at the start of getRegion, and the number
+   * of its neighbors of each color in getAdjacentColorCounts
+   * @param colors color of each node, where neighbors of the same color are
+   *        part of the same region
+   * @param start
+   * @param finalColor color the solution ends with or -1 for any
+   * @return
+   */
+  public int getRegionBound(byte[] colors, short start, byte finalColor) {
+    byte regionColor = colors[start];
+
+    Arrays.fill(dist, -1);
+    Arrays.fill(maxColorDist, 0);
+    Arrays.fill(adjacentColorCounts, 0);
+
+    int count = 0;
+
+    dist[start] = 0;
+    order[count++] = start;
+
+    int layerStart = 0;
+    int layerDistance = 0;
+
+    while (layerStart < count) {
+
+      // Everything connected to the layer by nodes of the same color is at
+      // the same distance
+      for (int i = layerStart; i < count; i++) {
+        short node = order[i];
+        byte color = colors[node];
+
+        for (short n : edges[node]) {
+          if (dist[n] < 0 && colors[n] == color) {
+            dist[n] = layerDistance;
+            order[count++] = n;
+          }
+        }
+      }
+
+      int layerEnd = count;
+
+      if (layerDistance == 0) {
+        regionSize = count;
+      }
+
+      for (int i = layerStart; i < layerEnd; i++) {
+        short node = order[i];
+
+        if (layerDistance > 0) {
+          maxColorDist[colors[node]] = layerDistance;
+        }
+        if (layerDistance == 1) {
+          adjacentColorCounts[colors[node]]++;
+        }
+
+        for (short n : edges[node]) {
+          if (dist[n] < 0) {
+            dist[n] = layerDistance + 1;
+            order[count++] = n;
+          }
+        }
+      }
+
+      layerStart = layerEnd;
+      layerDistance++;
+    }
+
+    int result = finalColor >= 0 && regionColor != finalColor ? 1 : 0;
+
+    for (int c = 0; c < colorCount; c++) {
+      int d = maxColorDist[c];
+
+      if (d == 0) {
+        continue;
+      }
+
+      int colorsAtOrBeyond = 0;
+
+      for (int other = 0; other < colorCount; other++) {
+        if (maxColorDist[other] >= d) {
+          colorsAtOrBeyond++;
+        }
+      }
+
+      int bound = d - 1 + colorsAtOrBeyond;
+
+      if (finalColor >= 0 && maxColorDist[finalColor] < d) {
+        bound++;
+      }
+
+      if (bound > result) {
+        result = bound;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the nodes of the region from the last call to getRegionBound in
+   * its first getRegionSize entries
+   */
+  public short[] getRegion() {
+    return order;
+  }
+
+  /**
+   * @return the number of nodes in the region from the last call to
+   * getRegionBound
+   */
+  public int getRegionSize() {
+    return regionSize;
+  }
+
+  /**
+   * @return the number of the region's neighbors of each color from the last
+   * call to getRegionBound
+   */
+  public int[] getAdjacentColorCounts() {
+    return adjacentColorCounts;
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Groups of nodes that symmetries of a graph take to each other.  Mirrored or
+ * rotated boards give graphs where starting from one node of a group is just
+ * as good as starting from any other, so searches only need to try one node
+ * of each group.
+ * <p>
+ * Color refinement splits the nodes into cells that the groups always fit
+ * inside.  Within a cell, two nodes are only grouped together once a symmetry
+ * taking one to the other has been found by comparing the canonical forms of
+ * the graph with each node set apart.  Each symmetry found groups every node
+ * with its image, which saves working out forms for most of the other cells.
+ * Nodes may be left apart when the forms give up on a very symmetric graph,
+ * but never grouped wrongly
+ */
+final class Orbits {
+
+  /**
+   * Create the orbits of the given graph
+   * @param graph
+   * @return
+   */
+  static Orbits of(Graph graph) {
+    return new Orbits(graph);
+  }
+
+  /**
+   * Smallest node id of each node's orbit or -1 for ids not in the graph
+   */
+  private final short[] representatives;
+
+  private Orbits(Graph graph) {
+    int nodeCount = graph.getNodes().length;
+    int[] cells = CanonicalForm.refineCells(graph);
+
+    representatives = new short[nodeCount];
+
+    int cellCount = 0;
+
+    for (short node = 0; node < nodeCount; node++) {
+      representatives[node] = cells[node] < 0 ? -1 : node;
+      cellCount = Math.max(cellCount, cells[node] + 1);
+    }
+
+    int[] cellSizes = new int[cellCount];
+
+    for (int cell : cells) {
+      if (cell >= 0) {
+        cellSizes[cell]++;
+      }
+    }
+
+    // Forms with a node set apart, one for each orbit found so far
+    Map<CanonicalForm,CanonicalForm> forms = Maps.newHashMap();
+
+    for (short node = 0; node < nodeCount; node++) {
+      int cell = cells[node];
+
+      // Skip nodes that a symmetry already took an earlier node to
+      if (cell < 0 || cellSizes[cell] < 2 || find(node) != node) {
+        continue;
+      }
+
+      CanonicalForm form = CanonicalForm.of(graph, node);
+      CanonicalForm match = forms.get(form);
+
+      if (match == null) {
+        forms.put(form, form);
+        continue;
+      }
+
+      // The matching forms line up a symmetry that takes the earlier node to
+      // this one
+      short[] symmetry = match.mapTo(form, nodeCount);
+
+      for (short n = 0; n < nodeCount; n++) {
+        if (symmetry[n] >= 0) {
+          union(n, symmetry[n]);
+        }
+      }
+    }
+
+    for (short node = 0; node < nodeCount; node++) {
+      if (representatives[node] >= 0) {
+        representatives[node] = find(node);
+      }
+    }
+  }
+
+  private short find(short node) {
+    while (representatives[node] != node) {
+      representatives[node] = representatives[representatives[node]];
+      node = representatives[node];
+    }
+
+    return node;
+  }
+
+  private void union(short n1, short n2) {
+    short r1 = find(n1);
+    short r2 = find(n2);
+
+    if (r1 < r2) {
+      representatives[r2] = r1;
+    }
+    else if (r2 < r1) {
+      representatives[r1] = r2;
+    }
+  }
+
+  /**
+   * @param node
+   * @return the smallest node id in the orbit of the given node
+   */
+  short getRepresentative(short node) {
+    return representatives[node];
+  }
+
+  /**
+   * @param node
+   * @return true if the given node is the smallest node id in its orbit
+   */
+  boolean isRepresentative(short node) {
+    return representatives[node] == node;
+  }
+
+}
@@ -3,162 +3,187 @@ package com.rookandpawn.kami.solver;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Queue;
-import java.util.Set;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
 
 /**
- * Representation of a group of shortest paths between all nodes in a graph
+ * Representation of the shortest paths between all nodes in a graph. Only the
+ * distances are kept, one row per node, so looking up the longest path from a
+ * node is a single array read. The nodes along a path are found on demand.
+ * Rows are never modified once built, so the path set of a graph made by
+ * changing a node's color shares every row the change did not affect.  Rows
+ * are indexed by the ids of the compact form of the first graph, so they are
+ * only as long as the number of nodes it had
  */
 public class PathSet {
 
-  
-  public static class Path {
-    private final short start;
-    private final short end;
-    private final List<Short> nodes;
+  /**
+   * Largest graph (by live node count) whose distances are found with one
+   * bit mask per node instead of one breadth first search per node
+   */
+  private static final int MAX_BIT_PARALLEL_NODE_COUNT = 64;
 
-    public Path(short start, short end, List<Short> nodes) {
-      this.start = start;
-      this.end = end;
-      this.nodes = nodes;
-    }
+  private final byte[] nodes;
+  private final short[][] edges;
+  private final CompactGraph compact;
 
-    @Override
-    public int hashCode() {
-      int hash = 3;
-      hash = 79 * hash + this.start;
-      hash = 79 * hash + this.end;
-      return hash;
-    }
+  /**
+   * Distance between every pair of nodes by compact id.  Unreachable nodes have
+   * a distance of -1. Rows of absent nodes are null, and their columns in the
+   * other rows are meaningless
+   */
+  private final short[][] distances;
 
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      final Path other = (Path) obj;
-      if (this.start != other.start) {
-        return false;
-      }
-      if (this.end != other.end) {
-        return false;
-      }
-      return true;
-    }
+  /**
+   * Longest distance from each node to any node it can reach or -1 if it
+   * cannot reach any other node by compact id
+   */
+  private final int[] eccentricities;
 
-    public int length() {
-      return nodes.size() - 1;
-    }
+  private final int maxPathLength;
+  private final short centerNode;
 
-    /**
-     * @return the start
-     */
-    public short getStart() {
-      return start;
-    }
+  private int minSingleColorMaxPathLength = -1;
 
-    /**
-     * @return the end
-     */
-    public short getEnd() {
-      return end;
-    }
+  /**
+   * Create a new pathset directly from a graph.  This will do the full
+   * calculation of paths, so don't do this very often
+   * @param graph
+   */
+  public PathSet(Graph graph) {
+    this.nodes = graph.getNodes();
+    this.edges = graph.getEdges();
+    this.compact = new CompactGraph(graph);
 
-    /**
-     * @return the edges
-     */
-    public List<Short> getNodes() {
-      return nodes;
-    }
+    this.distances = compact.getNodeCount() <= MAX_BIT_PARALLEL_NODE_COUNT
+        ? calculateDistancesWithMasks(compact)
+        : calculateDistances(compact);
 
-    @Override
-    public String toString() {
-      return new StringBuilder()
-          .append(start)
-          .append("->")
-          .append(end)
-          .append(" by ")
-          .append(Objects.toString(nodes, ""))
-          .toString();
-    }
+    this.eccentricities = new int[distances.length];
 
-    public Path getRevese() {
-      List<Short> newNodes = Lists.newArrayList(this.nodes);
-      Collections.reverse(newNodes);
-      return new Path(end, start, newNodes);
+    for (short node = 0; node < distances.length; node++) {
+      eccentricities[node] = calculateEccentricity(node);
     }
-  }
 
-  private final List<Path> paths;
-  private final int maxPathLength;
-  private final int minSingleColorMaxPathLength;
-  private final short centerNode;
+    maxPathLength = determineMaxPathLength(eccentricities);
+    centerNode = determineMostCentralNode();
+  }
 
   /**
-   * Create a new pathset directly from a graph.  This will do the full
-   * calculation of paths, so don't do this very often
-   * @param graph
+   * Create the path set of the graph made by changing the color of the given
+   * node in the parent's graph.  Merging the changed node with the neighbors
+   * it absorbed can only shorten paths that pass by them, and the new
+   * distance between a and b is min(d(a, b), d(a, S) + d(S, b)) where S is
+   * the set of merged nodes.  Only rows where that makes a difference are
+   * copied, and only eccentricities that could have changed are recalculated
+   * @param parent path set of the graph before the change
+   * @param changedNode node whose color was changed
+   * @param graph graph after the change
    */
-  public PathSet(Graph graph) {
-    byte[] nodes = graph.getNodes();
-    short[][] edges = graph.getEdges();
+  public PathSet(PathSet parent, short changedNode, Graph graph) {
+    this.nodes = graph.getNodes();
+    this.edges = graph.getEdges();
+    this.compact = parent.compact;
+
+    int nodeCount = compact.getNodeCount();
+
+    this.distances = new short[nodeCount][];
+    this.eccentricities = new int[nodeCount];
 
-    int maxPathLenghtTemp = 0;
-    Map<Path,Path> pathsTemp = Maps.newHashMap();
+    short[][] parentDistances = parent.distances;
+    short changed = compact.getCompactId(changedNode);
 
-    for (short from = 0; from < nodes.length; from++) {
-      if (nodes[from] < 0) {
+    // Distance from every node to the closest merged node
+    short[] mergedDistances = new short[nodeCount];
+
+    System.arraycopy(parentDistances[changed], 0
+        , mergedDistances, 0, nodeCount);
+
+    for (short removed = 0; removed < nodeCount; removed++) {
+      if (isLive(removed) || parentDistances[removed] == null) {
         continue;
       }
-      for (short to = 0; to < from; to++) {
-        if (nodes[to] < 0) {
-          continue;
+
+      short[] row = parentDistances[removed];
+
+      for (int n = 0; n < nodeCount; n++) {
+        if (row[n] < mergedDistances[n]) {
+          mergedDistances[n] = row[n];
         }
-        int length = getShortestPath(from, to, edges, pathsTemp);
+      }
+    }
+
+    for (short node = 0; node < nodeCount; node++) {
+      short[] row = parentDistances[node];
+
+      if (row == null || node == changed || !isLive(node)) {
+        continue;
+      }
+
+      short toMerged = mergedDistances[node];
+      short[] newRow = row;
+
+      if (row[changed] != toMerged) {
+        newRow = Arrays.copyOf(row, row.length);
+        newRow[changed] = toMerged;
+      }
 
-        if (length > maxPathLenghtTemp && length != Integer.MAX_VALUE) {
-          maxPathLenghtTemp = length;
+      // Only nodes at least two steps beyond the merged nodes can get closer
+      if (toMerged >= 0 && toMerged + 1 < parent.eccentricities[node]) {
+        for (short to = 0; to < nodeCount; to++) {
+          short viaMerged = (short)(toMerged + mergedDistances[to]);
+
+          if (viaMerged < newRow[to] && isLive(to)) {
+            if (newRow == row) {
+              newRow = Arrays.copyOf(row, row.length);
+            }
+
+            newRow[to] = viaMerged;
+          }
         }
       }
+
+      distances[node] = newRow;
     }
 
-    paths = Lists.newArrayList(pathsTemp.values());
-    maxPathLength = maxPathLenghtTemp;
+    mergedDistances[changed] = 0;
+    distances[changed] = mergedDistances;
+
+    for (short node = 0; node < nodeCount; node++) {
+      short[] row = distances[node];
 
-    minSingleColorMaxPathLength
-        = determineMinMaxPathLengthForColors(paths, nodes);
+      // The absorbed nodes were at most one step beyond the changed node, so
+      // unless a node's longest path could have ended at one of them, the
+      // change can only have shortened paths it already has
+      boolean unaffected = row != null
+          && row == parentDistances[node]
+          && row[changed] + 1 < parent.eccentricities[node];
 
-    centerNode = determineMostCentralNode(nodes, paths);
+      eccentricities[node] = unaffected
+          ? parent.eccentricities[node]
+          : calculateEccentricity(node);
+    }
+
+    maxPathLength = determineMaxPathLength(eccentricities);
+    centerNode = determineMostCentralNode();
+  }
+
+  /**
+   * @param node compact id
+   * @return true if the node has not been absorbed by another node
+   */
+  private boolean isLive(short node) {
+    return nodes[compact.getOriginalId(node)] >= 0;
   }
 
   /**
    * Get the length of the longest path from the given node
    * @param node
-   * @return 
+   * @return
    */
   public int getMaxDistanceFrom(short node) {
-    int maxDistance = -1;
-
-    for (Path path : paths) {
-      if (path.start == node) {
-        if (maxDistance < path.length()) {
-          maxDistance = path.length();
-        }
-      }
-    }
+    short from = compact.getCompactId(node);
+    int maxDistance = from < 0 ? -1 : eccentricities[from];
 
     return maxDistance < 0 ? 0 : maxDistance;
   }
@@ -166,171 +191,247 @@ public class PathSet {
   /**
    * Get the maximum length of min-path starting from the given node
    * @param node
-   * @return 
+   * @return
    */
   public int getMaxPathDistanceFrom(short node) {
     if (node < 0) {
       return 100;
     }
 
-    int maxDistance = -1;
-
-    for (Path path : paths) {
-      if (path.end == node || path.start == node) {
-        if (maxDistance < path.length()) {
-          maxDistance = path.length();
-        }
-      }
-    }
+    short from = compact.getCompactId(node);
 
-    return maxDistance;
+    return from < 0 ? -1 : eccentricities[from];
   }
 
-  public PathSet(PathSet old, Set<Short> removedNeighbors, short newNode
-      , Graph graph) {
-    int maxPathLengthTemp = 0;
+  /**
+   * @param from
+   * @param to
+   * @return the number of edges on the shortest path between the given nodes
+   * or -1 if there is no path
+   */
+  public int getDistance(short from, short to) {
+    short compactFrom = compact.getCompactId(from);
+    short compactTo = compact.getCompactId(to);
 
-    paths = Lists.newArrayList();
+    if (compactFrom < 0 || compactTo < 0) {
+      return -1;
+    }
 
-    for (Path path : old.paths) {
-      if (removedNeighbors.contains(path.start)
-          || removedNeighbors.contains(path.end)) {
-        continue;
-      }
+    short[] row = distances[compactFrom];
 
-      boolean affected = false;
+    return row == null || distances[compactTo] == null ? -1 : row[compactTo];
+  }
 
-      for (Short neighbor : removedNeighbors) {
-        affected = affected || path.nodes.contains(neighbor);
-      }
+  /**
+   * Calculate the distances from every node with one breadth first search per
+   * node
+   * @param compact
+   * @return
+   */
+  private static short[][] calculateDistances(CompactGraph compact) {
+    int nodeCount = compact.getNodeCount();
+    int[] offsets = compact.getOffsets();
+    short[] targets = compact.getTargets();
+    short[][] result = new short[nodeCount][];
+    short[] queue = new short[nodeCount];
 
-      if (!affected) {
-        if (path.getNodes().size() - 1 > maxPathLengthTemp) {
-          maxPathLengthTemp = path.getNodes().size() - 1;
-        }
-        paths.add(path);
-        continue;
-      }
+    for (short from = 0; from < nodeCount; from++) {
+      short[] row = new short[nodeCount];
 
-      List<Short> newPathNodes = Lists.newArrayList(path.nodes);
+      Arrays.fill(row, (short)-1);
 
-      newPathNodes.removeAll(removedNeighbors);
+      row[from] = 0;
 
-      newPathNodes.add(newNode);
+      int head = 0;
+      int tail = 0;
 
-      int pathLength = newPathNodes.size() - 1;
+      queue[tail++] = from;
 
-      if (pathLength > maxPathLengthTemp) {
-        maxPathLengthTemp = pathLength;
-      }
+      while (head < tail) {
+        short node = queue[head++];
+        short distance = (short)(row[node] + 1);
 
-      Path newPath = new Path(path.start, path.end, newPathNodes);
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+          short n = targets[e];
 
-      paths.add(newPath);
+          if (row[n] < 0) {
+            row[n] = distance;
+            queue[tail++] = n;
+          }
+        }
+      }
 
+      result[from] = row;
     }
 
-    maxPathLength = maxPathLengthTemp;
-    minSingleColorMaxPathLength
-        = determineMinMaxPathLengthForColors(paths, graph.getNodes());
-
-    centerNode = determineMostCentralNode(graph.getNodes(), paths);
+    return result;
   }
 
   /**
-   * Get the shortest path between the given nodes in the given set of edges
-   * @param from
-   * @param to
-   * @param edges
+   * Calculate the distances from every node at once for graphs that fit in a
+   * single word. Each node keeps the mask of nodes it can reach in the current
+   * number of steps, and one more step is the union of its neighbors' masks,
+   * so every step costs one word operation per edge
+   * @param compact
+   * @return
    */
-  private int getShortestPath(short from, short to, short[][] edges
-      , Map<Path,Path> pathMap) {
+  private static short[][] calculateDistancesWithMasks(CompactGraph compact) {
+    int nodeCount = compact.getNodeCount();
+    int[] offsets = compact.getOffsets();
+    short[] targets = compact.getTargets();
+    short[][] result = new short[nodeCount][];
+    long[] reached = new long[nodeCount];
+    long[] nextReached = new long[nodeCount];
 
-    Queue<Path> q = Queues.newArrayDeque();
-    Set<Short> seen = Sets.newHashSet();
+    for (short node = 0; node < nodeCount; node++) {
+      reached[node] = 1L << node;
 
-    Path existingPath = pathMap.get(new Path(from, to, null));
+      short[] row = new short[nodeCount];
 
-    if (existingPath != null) {
-      return existingPath.nodes.size() - 1;
-    }
+      Arrays.fill(row, (short)-1);
 
-    List<Short> initPathNodes = Lists.newArrayList();
+      row[node] = 0;
+      result[node] = row;
+    }
 
-    initPathNodes.add(from);
+    boolean grew = true;
 
-    q.add(new Path(from, from, initPathNodes));
+    for (short distance = 1; grew; distance++) {
+      grew = false;
 
-    while (!q.isEmpty()) {
-      Path curr = q.poll();
+      for (short node = 0; node < nodeCount; node++) {
+        long mask = reached[node];
 
-      if (!seen.add(curr.end)) {
-        continue;
-      }
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+          mask |= reached[targets[e]];
+        }
 
-      if (curr.end != curr.start) {
-        pathMap.put(curr, curr);
-        Path rev = curr.getRevese();
-        pathMap.put(rev, rev);
-      }
+        nextReached[node] = mask;
 
-      if (curr.end == to) {
-        return curr.nodes.size() - 1;
-      }
+        long added = mask & ~reached[node];
 
-      for (short neighbor : edges[curr.end]) {
-        List<Short> nextPathEdges = Lists.newArrayList(curr.nodes);
-        nextPathEdges.add(neighbor);
-        Path next = new Path(from, neighbor, nextPathEdges);
+        while (added != 0) {
+          int to = Long.numberOfTrailingZeros(added);
+          added &= added - 1;
 
-        q.add(next);
+          result[node][to] = distance;
+          grew = true;
+        }
       }
 
+      long[] temp = reached;
+      reached = nextReached;
+      nextReached = temp;
     }
 
-    return Integer.MAX_VALUE;
-
+    return result;
   }
 
   /**
-   * Get all the shortest paths originating at the given node
    * @param node
-   * @return 
+   * @return the longest distance from the given node to any other node it can
+   * reach or -1 if there are none
    */
-  public List<List<Short>> getAllShortestPathsFrom(short node) {
-    List<List<Short>> result = Lists.newArrayList();
+  private int calculateEccentricity(short node) {
+    int result = -1;
+
+    short[] row = distances[node];
 
-    for (Path path : paths) {
-      if (path.start == node) {
-        result.add(path.nodes.subList(1, path.nodes.size()));
+    if (row == null) {
+      return result;
+    }
+
+    for (int to = 0; to < row.length; to++) {
+      if (to != node && row[to] > result && distances[to] != null) {
+        result = row[to];
       }
     }
 
     return result;
   }
 
+  private static int determineMaxPathLength(int[] eccentricities) {
+    int result = 0;
 
-  private short determineMostCentralNode(byte[] nodes, Iterable<Path> paths) {
-    int[] maxPathLengths = new int[nodes.length];
+    for (int eccentricity : eccentricities) {
+      if (eccentricity > result) {
+        result = eccentricity;
+      }
+    }
 
-    Arrays.fill(maxPathLengths, -1);
+    return result;
+  }
 
-    for (Path path : paths) {
-      if (maxPathLengths[path.start] < path.length()) {
-        maxPathLengths[path.start] = path.length();
+  /**
+   * Get all the shortest paths originating at the given node.  Each path
+   * holds the nodes after the given node up to and including its end
+   * @param node
+   * @return
+   */
+  public List<List<Short>> getAllShortestPathsFrom(short node) {
+    List<List<Short>> result = Lists.newArrayList();
+
+    short from = compact.getCompactId(node);
+    short[] row = from < 0 ? null : distances[from];
+
+    if (row == null) {
+      return result;
+    }
+
+    for (short to = 0; to < nodes.length; to++) {
+      short compactTo = compact.getCompactId(to);
+
+      if (to == node || compactTo < 0 || row[compactTo] < 0
+          || distances[compactTo] == null) {
+        continue;
       }
-      if (maxPathLengths[path.end] < path.length()) {
-        maxPathLengths[path.end] = path.length();
+
+      List<Short> path = Lists.newArrayList();
+
+      // Walk back from the end to the start through the first neighbor that is
+      // one step closer each time
+      short curr = to;
+
+      while (curr != node) {
+        path.add(curr);
+
+        int currDistance = row[compact.getCompactId(curr)];
+
+        for (short n : edges[curr]) {
+          if (row[compact.getCompactId(n)] == currDistance - 1) {
+            curr = n;
+            break;
+          }
+        }
       }
+
+      Collections.reverse(path);
+
+      result.add(path);
     }
 
+    return result;
+  }
+
+  /**
+   * @return the live node with the shortest longest path, lowest id first
+   */
+  private short determineMostCentralNode() {
     short result = -1;
     int minPathLength = Integer.MAX_VALUE;
 
-    for (short i = 0; i < maxPathLengths.length; i++) {
-      if (maxPathLengths[i] < minPathLength && maxPathLengths[i] > 0) {
-        result = i;
-        minPathLength = maxPathLengths[i];
+    for (short n = 0; n < nodes.length; n++) {
+      short node = compact.getCompactId(n);
+
+      if (node < 0) {
+        continue;
+      }
+
+      int eccentricity = eccentricities[node];
+
+      if (eccentricity < minPathLength && eccentricity > 0) {
+        result = n;
+        minPathLength = eccentricity;
       }
     }
 
@@ -345,18 +446,24 @@ public class PathSet {
     return result;
   }
 
-  private int determineMinMaxPathLengthForColors(
-      Iterable<Path> paths
-      , byte[] colors) {
-    int[] maxPathLengths = new int[colors.length];
+  private int determineMinMaxPathLengthForColors() {
+    int[] maxPathLengths = new int[nodes.length];
 
-    for (Path path : paths) {
-      if (colors[path.end] != colors[path.start]) {
+    for (short from = 0; from < distances.length; from++) {
+      short[] row = distances[from];
+
+      if (row == null || !isLive(from)) {
         continue;
       }
 
-      if (path.getNodes().size() - 1 > maxPathLengths[colors[path.end]]) {
-        maxPathLengths[colors[path.end]] = path.getNodes().size() - 1;
+      byte color = nodes[compact.getOriginalId(from)];
+
+      for (short to = 0; to < from; to++) {
+        if (nodes[compact.getOriginalId(to)] == color
+            && distances[to] != null
+            && row[to] > maxPathLengths[color]) {
+          maxPathLengths[color] = row[to];
+        }
       }
     }
 
@@ -383,6 +490,10 @@ public class PathSet {
    * @return the minSingleColorMaxPathLength
    */
   public int getMinSingleColorMaxPathLength() {
+    if (minSingleColorMaxPathLength < 0) {
+      minSingleColorMaxPathLength = determineMinMaxPathLengthForColors();
+    }
+
     return minSingleColorMaxPathLength;
   }
 
@@ -1,12 +1,20 @@
 package com.rookandpawn.kami.solver;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.j2objc.annotations.AutoreleasePool;
 
 /**
@@ -14,49 +22,219 @@ import com.google.j2objc.annotations.AutoreleasePool;
  */
 public class Search {
 
-  private static class Point {
-    
-    public final byte finalColor;
-    public final int graphNum;
+  /**
+   * Shortest solution found so far for one connected graph for each final
+   * color.  Connected graphs do not affect each other once the final color is
+   * fixed, so the solution for the whole graph is the combination of these
+   * with the smallest total for one final color.  A graph that is the same as
+   * an earlier one except for its node ids takes its solutions from the
+   * earlier one's table instead of being solved again.  In the same way, a
+   * final color that can trade places with an earlier one without changing
+   * the graph takes its solution from the earlier color's
+   */
+  private static class ComponentTable {
+
+    private final Graph graph;
+    private final int[] lowerBounds;
+    private final List<List<Move>> solutions;
+    private final ComponentTable source;
+    private final short[] sourceNodeMap;
+
+    /**
+     * Color solved in place of each final color, which is the color itself
+     * unless an earlier color is equivalent
+     */
+    private final byte[] representatives;
+
+    /**
+     * Node that each node of the graph stands for when a representative's
+     * solution is used for another color or null if each node stands for
+     * itself
+     */
+    private final short[][] representativeNodeMaps;
+
+    /**
+     * Graph to search for each final color with the nodes that merge for free
+     * left out, filled in as needed
+     */
+    private final Graph[] reducedGraphs;
+
+    public ComponentTable(Graph graph) {
+      this(graph, null, null);
+    }
 
-    public Point(byte finalColor, int graphNum) {
-      this.finalColor = finalColor;
-      this.graphNum = graphNum;
+    /**
+     * @param graph graph to solve
+     * @param source table of a graph the same as this one or null
+     * @param sourceNodeMap node of this graph for each node of the source
+     *        graph
+     */
+    public ComponentTable(Graph graph
+        , ComponentTable source
+        , short[] sourceNodeMap) {
+      this.graph = graph;
+      this.source = source;
+      this.sourceNodeMap = sourceNodeMap;
+
+      int colorCount = graph.getColors().length;
+      boolean[] present = new boolean[colorCount];
+
+      for (byte color : graph.getNodes()) {
+        if (color >= 0) {
+          present[color] = true;
+        }
+      }
+
+      this.lowerBounds = new int[colorCount];
+
+      int diameterBound = LowerBounds.getDiameterBound(graph);
+
+      for (byte color = 0; color < colorCount; color++) {
+        lowerBounds[color] = Math.max(diameterBound
+            , LowerBounds.getColorBound(graph, color));
+      }
+
+      this.solutions = Lists.newArrayList(
+          Collections.nCopies(colorCount, (List<Move>)null));
+      this.representatives = new byte[colorCount];
+      this.representativeNodeMaps = new short[colorCount][];
+      this.reducedGraphs = new Graph[colorCount];
+
+      CanonicalForm form = null;
+
+      for (byte color = 0; color < colorCount; color++) {
+        representatives[color] = color;
+
+        if (source != null) {
+          continue;
+        }
+
+        for (byte other = 0; other < color; other++) {
+          if (representatives[other] != other
+              || present[other] != present[color]) {
+            continue;
+          }
+
+          // Colors no node has are always interchangeable
+          if (!present[color]) {
+            representatives[color] = other;
+            break;
+          }
+
+          // Otherwise swapping them has to give the same graph
+          byte[] swap = new byte[colorCount];
+
+          for (byte c = 0; c < colorCount; c++) {
+            swap[c] = c == color ? other : c == other ? color : c;
+          }
+
+          if (form == null) {
+            form = CanonicalForm.of(graph);
+          }
+
+          CanonicalForm swapped = CanonicalForm.of(graph, swap);
+
+          if (swapped.equals(form)) {
+            representatives[color] = other;
+            representativeNodeMaps[color] = swapped.mapTo(form
+                , graph.getNodes().length);
+            break;
+          }
+        }
+      }
     }
 
-    @Override
-    public int hashCode() {
-      int hash = 7;
-      hash = 67 * hash + this.finalColor;
-      hash = 67 * hash + this.graphNum;
-      return hash;
+    /**
+     * @param finalColor
+     * @return the graph to search for solutions ending in the given color.
+     * Its solutions are solutions of this table's graph as they are
+     */
+    public Graph getReducedGraph(byte finalColor) {
+      if (reducedGraphs[finalColor] == null) {
+        reducedGraphs[finalColor] = GraphReducer.reduce(graph, finalColor);
+      }
+
+      return reducedGraphs[finalColor];
     }
 
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
+    public List<Move> getSolution(byte finalColor) {
+      byte representative = representatives[finalColor];
+
+      if (representative != finalColor) {
+        return getSolutionFromRepresentative(finalColor, representative);
       }
-      if (obj == null) {
-        return false;
+
+      if (source == null) {
+        return solutions.get(finalColor);
       }
-      if (getClass() != obj.getClass()) {
-        return false;
+
+      List<Move> sourceSolution = source.getSolution(finalColor);
+
+      if (sourceSolution == null) {
+        return null;
+      }
+
+      List<Move> result = Lists.newArrayList();
+
+      for (Move move : sourceSolution) {
+        result.add(graph.createMove(sourceNodeMap[move.getNode()]
+            , move.getColorIndex()));
+      }
+
+      return result;
+    }
+
+    /**
+     * Turn the representative's solution into one for the given color by
+     * swapping the two colors and moving each move to the node it stands for
+     * @param finalColor
+     * @param representative
+     * @return
+     */
+    private List<Move> getSolutionFromRepresentative(byte finalColor
+        , byte representative) {
+      List<Move> representativeSolution = getSolution(representative);
+
+      if (representativeSolution == null) {
+        return null;
       }
-      final Point other = (Point) obj;
-      if (this.finalColor != other.finalColor) {
-        return false;
+
+      short[] nodeMap = representativeNodeMaps[finalColor];
+      List<Move> result = Lists.newArrayList();
+
+      for (Move move : representativeSolution) {
+        byte color = move.getColorIndex();
+
+        if (color == finalColor) {
+          color = representative;
+        }
+        else if (color == representative) {
+          color = finalColor;
+        }
+
+        result.add(graph.createMove(nodeMap == null
+            ? move.getNode()
+            : nodeMap[move.getNode()], color));
       }
-      if (this.graphNum != other.graphNum) {
-        return false;
+
+      return result;
+    }
+
+    public void storeIfBest(byte finalColor, List<Move> solution) {
+      List<Move> currSolution = solutions.get(finalColor);
+
+      if (currSolution == null || solution.size() < currSolution.size()) {
+        solutions.set(finalColor, solution);
       }
-      return true;
     }
   }
 
   /**
    * Find all the nodes in the given graph where changing their color before 
-   * running the dumb search might improve the solution
+   * running the dumb search might improve the solution.  Only one node of
+   * each orbit is included, since a symmetry of the graph turns a solution
+   * that starts with a move on one node into one that starts with the same
+   * move on any other node of its orbit
    * @param graph
    * @return 
    */
@@ -64,9 +242,10 @@ public class Search {
 
     List<Move> result = Lists.newArrayList();
     Map<Move,Short> moveCounts = Maps.newHashMap();
+    Orbits orbits = Orbits.of(graph);
 
     for (short node = 0; node < graph.getNodes().length; node++) {
-      if (graph.getNodes()[node] < 0) {
+      if (graph.getNodes()[node] < 0 || !orbits.isRepresentative(node)) {
         continue;
       }
 
@@ -93,126 +272,580 @@ public class Search {
     return result;
   }
 
-  private final Map<Point,List<Move>> bestSolutions = Maps.newHashMap();
+  /**
+   * @param graph
+   * @return the allowed extra moves with those the quick solution makes
+   * first, starting further along the list for workers other than the first
+   */
+  private List<Move> getExtraMoves(Graph graph) {
+    List<Move> result = getAllowedExtraMoveNodes(graph);
+
+    if (!quickMoves.isEmpty()) {
+      Collections.sort(result, (m1, m2) -> {
+        return Boolean.compare(!quickMoves.contains(m1)
+            , !quickMoves.contains(m2));
+      });
+    }
+
+    if (worker > 0 && !result.isEmpty()) {
+      Collections.rotate(result, -(worker % result.size()));
+    }
+
+    return result;
+  }
+
+  private List<ComponentTable> componentTables;
+  private final TranspositionTable transpositionTable;
   private final Graph originalGraph;
+  private final SolverEngine engine;
+  private final ForkJoinPool pool;
+  private final SolutionCache cache;
+  private final int worker;
+  private CanonicalForm cacheForm;
+  private int passesAtOnce = 1;
+  private List<Move> quickSolution;
+  private final Set<Move> quickMoves = Sets.newHashSet();
 
   public Search(Graph originalGraph) {
+    this(originalGraph, SolverEngine.DUMB);
+  }
+
+  public Search(Graph originalGraph, SolverEngine engine) {
+    this(originalGraph, engine, null);
+  }
+
+  /**
+   * @param originalGraph graph to solve
+   * @param engine engine to use for solving each connected graph
+   * @param pool pool to search extra moves on in parallel or null to search
+   *        on the calling thread
+   */
+  public Search(Graph originalGraph, SolverEngine engine, ForkJoinPool pool) {
+    this(originalGraph, engine, pool, null);
+  }
+
+  /**
+   * @param originalGraph graph to solve
+   * @param engine engine to use for solving each connected graph
+   * @param pool pool to search extra moves on in parallel or null to search
+   *        on the calling thread
+   * @param cache cache to check before searching and to record the results
+   *        in or null to always search
+   */
+  public Search(Graph originalGraph
+      , SolverEngine engine
+      , ForkJoinPool pool
+      , SolutionCache cache) {
+    this(originalGraph, engine, pool, cache, new TranspositionTable(), 0);
+  }
+
+  /**
+   * Create one of several searches of the same graph that share what they
+   * rule out
+   * @param originalGraph graph to solve
+   * @param engine engine to use for solving each connected graph
+   * @param transpositionTable table shared by the searches
+   * @param worker number of this search among them, which decides the order
+   *        it tries extra moves and start nodes in
+   */
+  Search(Graph originalGraph
+      , SolverEngine engine
+      , TranspositionTable transpositionTable
+      , int worker) {
+    this(originalGraph, engine, null, null, transpositionTable, worker);
+  }
+
+  private Search(Graph originalGraph
+      , SolverEngine engine
+      , ForkJoinPool pool
+      , SolutionCache cache
+      , TranspositionTable transpositionTable
+      , int worker) {
     this.originalGraph = originalGraph;
+    this.engine = engine;
+    this.pool = pool;
+    this.cache = cache;
+    this.transpositionTable = transpositionTable;
+    this.worker = worker;
+  }
+
+  /**
+   * @param passesAtOnce number of extra move counts to search a connected
+   *        graph with at once on the pool, cancelling the larger counts once
+   *        a smaller one succeeds.  With 1 or no pool the counts are searched
+   *        one after another
+   */
+  public void setPassesAtOnce(int passesAtOnce) {
+    this.passesAtOnce = passesAtOnce;
   }
 
   public Optional<List<Move>> go(int rawMoveCount) {
-    List<Graph> subGraphs = originalGraph.getSubGraphs();
+    return go(rawMoveCount, new CancellationToken());
+  }
+
+  /**
+   * Keep searching for shorter solutions until none can be found or the given
+   * token is cancelled.  Every improving solution is passed to the given
+   * listener as soon as it is found.  The first is the quick solution when it
+   * is short enough, so there is an answer to fall back on almost at once
+   * however long the rest of the search would take
+   * @param maxMoveCount largest number of moves to allow
+   * @param token token to stop the search
+   * @param listener receiver of each improving solution
+   * @return the shortest solution found before the search ended or absent
+   * @throws SearchLimitException if the engine gave up, in which case there
+   * may still be a shorter solution than the last one the listener was given
+   */
+  public Optional<List<Move>> goAnytime(int maxMoveCount
+      , CancellationToken token
+      , SolutionListener listener) {
+    Optional<List<Move>> best = Optional.absent();
 
-    if (subGraphs.size() == 1) {
-      return solveConnectedGraph(originalGraph, rawMoveCount);
+    int moveCount = maxMoveCount;
+
+    if (getQuickSolution().size() <= maxMoveCount && !token.isCancelled()) {
+      best = Optional.of(getQuickSolution());
+      listener.onSolution(best.get());
+
+      moveCount = best.get().size() - 1;
     }
 
-    // Sort subgraphs by size
-    Collections.sort(subGraphs, (g1, g2) -> {
-      return g1.getActualNodeCount() - g2.getActualNodeCount();
-    });
+    while (moveCount >= 0 && !token.isCancelled()) {
+      Optional<List<Move>> result = go(moveCount, token);
+
+      if (!result.isPresent()) {
+        break;
+      }
+
+      best = result;
+      listener.onSolution(result.get());
+
+      moveCount = result.get().size() - 1;
+    }
+
+    return best;
+  }
+
+  /**
+   * Search for a solution with at most the given number of moves.  When there
+   * is a cache, it is checked first and the result is recorded in it.  A
+   * search that finds nothing is only recorded when the engine is complete
+   * and the search ran to the end
+   * @param rawMoveCount
+   * @param token token to stop the search early
+   * @return a solution or absent if none was found before the token was
+   * cancelled
+   * @throws SearchLimitException if the engine gave up before the search was
+   * decided, in which case nothing is recorded about the graph
+   */
+  public Optional<List<Move>> go(int rawMoveCount, CancellationToken token) {
+    if (cache == null) {
+      return search(rawMoveCount, token);
+    }
+
+    if (cacheForm == null) {
+      cacheForm = CanonicalForm.ofColorClasses(originalGraph);
+    }
+
+    Optional<List<Move>> result
+        = cache.findSolution(originalGraph, cacheForm, rawMoveCount);
+
+    if (result.isPresent()
+        || cache.isKnownUnsolvable(cacheForm, rawMoveCount)) {
+      return result;
+    }
+
+    result = search(rawMoveCount, token);
+
+    try {
+      if (result.isPresent()) {
+        cache.storeSolution(cacheForm, result.get());
+      }
+      else if (engine.isComplete() && !token.isCancelled()) {
+        // The cache is shared by every engine, and a miss by one that skips
+        // moves says nothing about what a complete engine would find
+        cache.storeUnsolvable(cacheForm, rawMoveCount);
+      }
+    }
+    catch (IOException ex) {
+      // The result is still good even if it could not be saved
+      java.util.logging.Logger.getLogger(Search.class.getName())
+          .log(java.util.logging.Level.WARNING
+              , "Failed to save to solution cache", ex);
+    }
+
+    return result;
+  }
+
+  private Optional<List<Move>> search(int rawMoveCount
+      , CancellationToken token) {
+    List<ComponentTable> tables = getComponentTables();
 
-    int extraMoveCount = 0;
+    if (tables.size() == 1
+        ? LowerBounds.forGraph(originalGraph, (byte)-1) > rawMoveCount
+        : !isWithinLowerBounds(tables, rawMoveCount)) {
+      return Optional.absent();
+    }
 
+    // Its moves are the first extra moves to try
+    getQuickSolution();
+
+    if (tables.size() == 1) {
+      return solveConnectedGraph(originalGraph, rawMoveCount, token);
+    }
 
-    // With multiple subgraphs we have to decide the final color ahead of time,
-    // so here we are iterating over all colors to use as the last color
-    while (extraMoveCount < rawMoveCount) {
+    // With multiple subgraphs we have to decide the final color ahead of
+    // time.  Each subgraph gets one pass per number of extra moves, finding
+    // its shortest solution for every final color, and the passes stop at the
+    // first number of extra moves where the subgraphs' solutions add up to a
+    // short enough solution for some final color
+    for (int extraMoveCount = 0
+        ; extraMoveCount < getExtraMoveLimit(rawMoveCount)
+            && !token.isCancelled()
+        ; extraMoveCount++) {
 
       System.out.println("Searching for Solutions with " + extraMoveCount
           + " extra moves");
 
-      for (byte finalColor = 0
-          ; finalColor < originalGraph.getColors().length
-          ; finalColor++) {
+      AtomicIntegerArray failedColors
+          = new AtomicIntegerArray(originalGraph.getColors().length);
 
-        System.out.println("Searching for solutions that end in " + finalColor);
+      if (pool != null) {
+        List<ForkJoinTask<?>> tasks = Lists.newArrayList();
 
-        int movesLeft = rawMoveCount;
-        List<Move> moves = Lists.newArrayList();
+        for (ComponentTable table : tables) {
+          int moveCount = extraMoveCount;
 
-        int subGraphNum = 0;
-        boolean allSolutionsFound = true;
+          tasks.add(pool.submit(() -> fillComponentTable(table, tables
+              , rawMoveCount, moveCount, failedColors, token)));
+        }
 
-        for (Graph graph : subGraphs) {
+        // Let every table finish before passing on an engine giving up
+        for (ForkJoinTask<?> task : tasks) {
+          task.quietlyJoin();
+        }
 
-          System.out.println("Solving subgraph: " + subGraphNum);
+        for (ForkJoinTask<?> task : tasks) {
+          task.join();
+        }
+      }
+      else {
+        for (ComponentTable table : tables) {
+          fillComponentTable(table, tables
+              , rawMoveCount, extraMoveCount, failedColors, token);
+        }
+      }
 
-          List<Move> currSolution = getCurrentBestSolution(
-              subGraphNum, finalColor);
+      if (token.isCancelled()) {
+        break;
+      }
 
+      Optional<List<Move>> result = combineComponentSolutions(tables
+          , rawMoveCount);
 
-          int maxSearchMoves = currSolution != null
-              ? currSolution.size() - 1
-              : movesLeft;
+      if (result.isPresent()) {
+        return result;
+      }
+    }
 
-          for (int solutionLength = extraMoveCount
-              ; solutionLength <= maxSearchMoves
-              ; solutionLength++) {
-            Optional<List<Move>> currResult = solveConnectedGraph(graph
-                , solutionLength, finalColor, extraMoveCount);
+    return Optional.absent();
+  }
 
-            if (currResult.isPresent()) {
+  /**
+   * @return a solution found by a quick beam search.  It is not necessarily
+   * the shortest, but it is an upper bound on the shortest, and its moves are
+   * the first extra moves tried
+   */
+  public List<Move> getQuickSolution() {
+    if (quickSolution == null) {
+      List<ComponentTable> tables = getComponentTables();
 
-              currSolution = storeIfBestSolution(subGraphNum
-                  , finalColor, currResult.get());
+      quickSolution = tables.size() == 1
+          ? new BeamSearch(originalGraph).go()
+          : combineComponentSolutions(tables, Integer.MAX_VALUE).get();
 
-              break;
-            }
-          }
+      quickMoves.addAll(quickSolution);
+    }
 
-          if (currSolution == null) {
-            allSolutionsFound = false;
-            break;
-          }
+    return quickSolution;
+  }
 
-          moves.addAll(currSolution);
-          movesLeft -= currSolution.size();
+  /**
+   * @param tables tables of all the subgraphs
+   * @param rawMoveCount moves allowed for the whole graph
+   * @return true if the subgraphs' lower bounds add up to no more than the
+   * moves allowed for some final color
+   */
+  private boolean isWithinLowerBounds(List<ComponentTable> tables
+      , int rawMoveCount) {
+    for (byte finalColor = 0
+        ; finalColor < originalGraph.getColors().length
+        ; finalColor++) {
+      int total = 0;
+
+      for (ComponentTable table : tables) {
+        total += table.lowerBounds[finalColor];
+      }
 
-          subGraphNum++;
+      if (total <= rawMoveCount) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return a table for every connected subgraph of the graph from smallest
+   * to largest.  With more than one, each starts out with a quick solution
+   * for every final color, so its searches only look for shorter ones
+   */
+  private List<ComponentTable> getComponentTables() {
+    if (componentTables == null) {
+      List<Graph> subGraphs = originalGraph.getSubGraphs();
+
+      // Sort subgraphs by size
+      Collections.sort(subGraphs, (g1, g2) -> {
+        return g1.getActualNodeCount() - g2.getActualNodeCount();
+      });
+
+      componentTables = Lists.newArrayList();
+
+      Map<CanonicalForm,ComponentTable> tablesByForm = Maps.newHashMap();
+      Map<CanonicalForm,CanonicalForm> forms = Maps.newHashMap();
+
+      for (Graph graph : subGraphs) {
+        CanonicalForm form = CanonicalForm.of(graph);
+        ComponentTable source = tablesByForm.get(form);
+
+        if (source == null) {
+          ComponentTable table = new ComponentTable(graph);
+
+          tablesByForm.put(form, table);
+          forms.put(form, form);
+          componentTables.add(table);
         }
+        else {
+          short[] nodeMap = forms.get(form)
+              .mapTo(form, source.graph.getNodes().length);
 
-        if (allSolutionsFound && moves.size() <= rawMoveCount) {
-          return Optional.of(moves);
+          componentTables.add(new ComponentTable(graph, source, nodeMap));
         }
       }
 
-      extraMoveCount++;
+      if (componentTables.size() > 1) {
+        for (ComponentTable table : componentTables) {
+          seedComponentTable(table);
+        }
+      }
+    }
+
+    return componentTables;
+  }
+
+  /**
+   * Store a quick solution for every final color of the given table, unless
+   * it takes its solutions from another table
+   * @param table
+   */
+  private void seedComponentTable(ComponentTable table) {
+    if (table.source != null) {
+      return;
+    }
+
+    BeamSearch beamSearch = new BeamSearch(table.graph);
+
+    for (byte finalColor = 0
+        ; finalColor < originalGraph.getColors().length
+        ; finalColor++) {
+      if (table.representatives[finalColor] == finalColor) {
+        table.storeIfBest(finalColor, beamSearch.go(finalColor));
+      }
+    }
+  }
+
+  /**
+   * Look for a shorter solution of the given table's graph for every final
+   * color using the given number of extra moves.  Tables that take their
+   * solutions from another table are left alone.  A solution for one subgraph
+   * can use the moves the other subgraphs are sure not to need, and once a
+   * subgraph has no solution within that for a final color, no other subgraph
+   * needs to try that color
+   * @param table table of the graph to solve
+   * @param tables tables of all the subgraphs
+   * @param rawMoveCount moves allowed for the whole graph
+   * @param extraMoveCount extra moves to use
+   * @param failedColors final colors some subgraph has no solution for
+   * @param token token to stop the search early
+   */
+  private void fillComponentTable(ComponentTable table
+      , List<ComponentTable> tables
+      , int rawMoveCount
+      , int extraMoveCount
+      , AtomicIntegerArray failedColors
+      , CancellationToken token) {
+
+    if (table.source != null) {
+      return;
+    }
+
+    for (byte finalColor = 0
+        ; finalColor < failedColors.length() && !token.isCancelled()
+        ; finalColor++) {
+
+      if (table.representatives[finalColor] != finalColor) {
+        continue;
+      }
+
+      // Search far enough for every color this one stands in for that has
+      // not already failed
+      int maxMoves = -1;
+
+      for (byte color = finalColor; color < failedColors.length(); color++) {
+        if (table.representatives[color] == finalColor
+            && failedColors.get(color) == 0) {
+          maxMoves = Math.max(maxMoves
+              , getMaxComponentMoves(table, tables, rawMoveCount, color));
+        }
+      }
+
+      if (maxMoves < 0) {
+        continue;
+      }
+
+      List<Move> currSolution = table.getSolution(finalColor);
+
+      int maxSearchMoves = currSolution != null
+          ? Math.min(currSolution.size() - 1, maxMoves)
+          : maxMoves;
+
+      int minSearchMoves = Math.max(extraMoveCount
+          , table.lowerBounds[finalColor]);
+
+      for (int solutionLength = minSearchMoves
+          ; solutionLength <= maxSearchMoves
+          ; solutionLength++) {
+        Optional<List<Move>> currResult = solveConnectedGraph(
+            table.getReducedGraph(finalColor)
+            , solutionLength, finalColor, extraMoveCount, token);
+
+        if (currResult.isPresent()) {
+          table.storeIfBest(finalColor, currResult.get());
+          break;
+        }
+      }
+
+      if (token.isCancelled()) {
+        return;
+      }
+
+      for (byte color = finalColor; color < failedColors.length(); color++) {
+        if (table.representatives[color] != finalColor) {
+          continue;
+        }
+
+        currSolution = table.getSolution(color);
+
+        if (currSolution == null || currSolution.size()
+            > getMaxComponentMoves(table, tables, rawMoveCount, color)) {
+          failedColors.set(color, 1);
+        }
+      }
     }
-    
-    return Optional.absent();
   }
 
+  /**
+   * @param table table of the graph to solve
+   * @param tables tables of all the subgraphs
+   * @param rawMoveCount moves allowed for the whole graph
+   * @param finalColor
+   * @return the most moves the given table's graph can use for the given
+   * final color and leave enough for the other subgraphs
+   */
+  private static int getMaxComponentMoves(ComponentTable table
+      , List<ComponentTable> tables
+      , int rawMoveCount
+      , byte finalColor) {
+    int result = rawMoveCount;
+
+    for (ComponentTable other : tables) {
+      if (other != table) {
+        result -= other.lowerBounds[finalColor];
+      }
+    }
 
-  private List<Move> getCurrentBestSolution(
-      int graphNum, byte finalColor) {
-    return bestSolutions.get(new Point(finalColor, graphNum));
+    return result;
   }
 
-  private List<Move> storeIfBestSolution(int graphNum, byte finalColor
-      , List<Move> solution) {
-    Point key = new Point(finalColor, graphNum);
+  /**
+   * @param tables tables of all the subgraphs
+   * @param rawMoveCount moves allowed for the whole graph
+   * @return the shortest solution made of the subgraphs' solutions for one
+   * final color or absent if none is short enough
+   */
+  private Optional<List<Move>> combineComponentSolutions(
+      List<ComponentTable> tables
+      , int rawMoveCount) {
+    List<Move> result = null;
+
+    for (byte finalColor = 0
+        ; finalColor < originalGraph.getColors().length
+        ; finalColor++) {
+
+      List<Move> moves = Lists.newArrayList();
+
+      for (ComponentTable table : tables) {
+        List<Move> solution = table.getSolution(finalColor);
+
+        if (solution == null) {
+          moves = null;
+          break;
+        }
 
-    List<Move> currSolution = bestSolutions.get(key);
+        moves.addAll(solution);
+      }
 
-    if (currSolution == null || solution.size() < currSolution.size()) {
-      bestSolutions.put(key, solution);
-      return solution;
+      if (moves != null && moves.size() <= rawMoveCount
+          && (result == null || moves.size() < result.size())) {
+        result = moves;
+      }
     }
 
-    return currSolution;
+    return Optional.fromNullable(result);
+  }
+
+  /**
+   * @param rawMoveCount
+   * @return one more than the most extra moves worth trying
+   */
+  private int getExtraMoveLimit(int rawMoveCount) {
+    return engine.triesAllMoves()
+        ? Math.min(1, rawMoveCount)
+        : rawMoveCount;
   }
 
   private Optional<List<Move>> solveConnectedGraph(
       Graph connectedGraph
-      , int rawMoveCount) {
+      , int rawMoveCount
+      , CancellationToken token) {
+
+    if (pool != null && passesAtOnce > 1) {
+      return SpeculativeDeepening.findFirst(0
+          , getExtraMoveLimit(rawMoveCount) - 1
+          , passesAtOnce
+          , pool
+          , token
+          , (extraMoveCount, passToken) -> solveConnectedGraph(connectedGraph
+              , rawMoveCount, (byte)-1, extraMoveCount, passToken));
+    }
 
     for (int extraMoveCount = 0
-        ; extraMoveCount < rawMoveCount
+        ; extraMoveCount < getExtraMoveLimit(rawMoveCount)
+            && !token.isCancelled()
         ; extraMoveCount++) {
 
       Optional<List<Move>> result = solveConnectedGraph(connectedGraph
-        , rawMoveCount, (byte)-1, extraMoveCount);
+        , rawMoveCount, (byte)-1, extraMoveCount, token);
 
       if (result.isPresent()) {
         return result;
@@ -226,7 +859,8 @@ public class Search {
   private Optional<List<Move>> solveConnectedGraph(Graph connectedGraph
       , int rawMoveCount
       , byte finalColor
-      , int extraMoveCount) {
+      , int extraMoveCount
+      , CancellationToken token) {
     
     int moveCount = rawMoveCount;
     int dumbMoveCount = moveCount - extraMoveCount;
@@ -235,7 +869,8 @@ public class Search {
         connectedGraph
         , extraMoveCount
         , dumbMoveCount
-        , finalColor);
+        , finalColor
+        , token);
 
     if (result.isPresent()) {
       return result;
@@ -251,22 +886,61 @@ public class Search {
    * @param extraMoveCount number of extra moves
    * @param solver function that takes in a graph and returns a solution or
    *        absent
+   * @param token token to stop the search early
    * @return a solution or absent
    */
   private Optional<List<Move>> forEachGraphWithExtraMoves(Graph graph
       , int extraMoveCount
       , int dumbMoveCount
-      , byte finalColor) {
+      , byte finalColor
+      , CancellationToken token) {
+
+    if (LowerBounds.forGraph(graph, finalColor)
+        > extraMoveCount + dumbMoveCount) {
+      return Optional.absent();
+    }
+
+    if (transpositionTable.isKnownUnsolvable(graph
+        , finalColor, extraMoveCount, dumbMoveCount)) {
+      return Optional.absent();
+    }
+
+    // Every graph below this one gets its paths by updating its parent's
+    PathSet paths = new PathSet(graph);
+
+    Optional<List<Move>> result;
 
     if (extraMoveCount == 0) {
-      return new DumbSearch(graph).go(dumbMoveCount, finalColor);
+      result = engine.create(graph, paths, pool, worker)
+          .go(dumbMoveCount, finalColor, token);
+    }
+    else if (pool != null) {
+      result = pool.invoke(new ExtraMoveTask(extraMoveCount
+          , Collections.<Move>emptyList()
+          , graph
+          , paths
+          , dumbMoveCount
+          , finalColor
+          , new AtomicBoolean()
+          , token));
+    }
+    else {
+      result = forEachGraphWithExtraMovesHelper(extraMoveCount
+          , Collections.<Move>emptyList()
+          , graph
+          , paths
+          , dumbMoveCount
+          , finalColor
+          , token);
     }
 
-    return forEachGraphWithExtraMovesHelper(extraMoveCount
-        , Collections.EMPTY_LIST
-        , graph
-        , dumbMoveCount
-        , finalColor);
+    // A cancelled search proves nothing
+    if (!result.isPresent() && !token.isCancelled()) {
+      transpositionTable.storeUnsolvable(graph
+          , finalColor, extraMoveCount, dumbMoveCount);
+    }
+
+    return result;
   }
 
   /**
@@ -275,27 +949,50 @@ public class Search {
    * @param extraMoveCount extra move count
    * @param extraMoves extra moves already applied
    * @param graph graph to apply current extra moves to
+   * @param paths paths of the given graph
    * @param solver function that takes in a graph and returns a solution or
    *        absent
+   * @param token token to stop the search early
    * @return a solution or absent
    */
   private Optional<List<Move>> forEachGraphWithExtraMovesHelper(
       int extraMoveCount
       , List<Move> extraMoves
       , Graph graph
+      , PathSet paths
       , int dumbMoveCount
-      , byte finalColor) {
+      , byte finalColor
+      , CancellationToken token) {
+
+    for (@AutoreleasePool Move extraMove : getExtraMoves(graph)) {
+      if (token.isCancelled()) {
+        return Optional.absent();
+      }
 
-    for (@AutoreleasePool Move extraMove : getAllowedExtraMoveNodes(graph)) {
       List<Move> newExtraMoves = Lists.newArrayList(extraMoves);
       newExtraMoves.add(extraMove);
 
       Graph newGraph = graph.changeNodeColor(extraMove.getNode()
           , extraMove.getColorIndex());
 
+      if (LowerBounds.forGraph(newGraph, finalColor)
+          > extraMoveCount - 1 + dumbMoveCount) {
+        continue;
+      }
+
+      // Different orders of the same extra moves lead to the same graph, so
+      // skip any graph that has already been searched without success
+      if (transpositionTable.isKnownUnsolvable(newGraph
+          , finalColor, extraMoveCount - 1, dumbMoveCount)) {
+        continue;
+      }
+
+      PathSet newPaths = new PathSet(paths, extraMove.getNode(), newGraph);
+
       if (extraMoveCount == 1) {
         Optional<List<Move>> dumbResult 
-            = new DumbSearch(newGraph).go(dumbMoveCount, finalColor);
+            = engine.create(newGraph, newPaths, null, worker)
+                .go(dumbMoveCount, finalColor, token);
 
         if (dumbResult.isPresent()) {
           List<Move> result = Lists.newArrayList(newExtraMoves);
@@ -309,15 +1006,140 @@ public class Search {
             extraMoveCount - 1
             , newExtraMoves
             , newGraph
+            , newPaths
             , dumbMoveCount
-            , finalColor);
+            , finalColor
+            , token);
 
         if (result.isPresent()) {
           return result;
         }
       }
+
+      if (token.isCancelled()) {
+        return Optional.absent();
+      }
+
+      transpositionTable.storeUnsolvable(newGraph
+          , finalColor, extraMoveCount - 1, dumbMoveCount);
     }
 
     return Optional.absent();
   }
+
+  /**
+   * Parallel version of forEachGraphWithExtraMovesHelper.  Every allowed extra
+   * move becomes its own task, and once any task finds a solution the others
+   * stop at their next check of the shared flag
+   */
+  private class ExtraMoveTask extends RecursiveTask<Optional<List<Move>>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int extraMoveCount;
+    private final List<Move> extraMoves;
+    private final Graph graph;
+    private final PathSet paths;
+    private final int dumbMoveCount;
+    private final byte finalColor;
+    private final AtomicBoolean solved;
+    private final CancellationToken token;
+
+    public ExtraMoveTask(int extraMoveCount
+        , List<Move> extraMoves
+        , Graph graph
+        , PathSet paths
+        , int dumbMoveCount
+        , byte finalColor
+        , AtomicBoolean solved
+        , CancellationToken token) {
+      this.extraMoveCount = extraMoveCount;
+      this.extraMoves = extraMoves;
+      this.graph = graph;
+      this.paths = paths;
+      this.dumbMoveCount = dumbMoveCount;
+      this.finalColor = finalColor;
+      this.solved = solved;
+      this.token = token;
+    }
+
+    @Override
+    protected Optional<List<Move>> compute() {
+      if (solved.get() || token.isCancelled()) {
+        return Optional.absent();
+      }
+
+      if (extraMoveCount == 0) {
+        Optional<List<Move>> dumbResult = engine.create(graph
+            , paths
+            , null
+            , worker).go(dumbMoveCount, finalColor, token);
+
+        if (!dumbResult.isPresent()) {
+          return dumbResult;
+        }
+
+        solved.set(true);
+
+        List<Move> result = Lists.newArrayList(extraMoves);
+        result.addAll(dumbResult.get());
+
+        return Optional.of(result);
+      }
+
+      List<ExtraMoveTask> tasks = Lists.newArrayList();
+
+      for (Move extraMove : getExtraMoves(graph)) {
+        Graph newGraph = graph.changeNodeColor(extraMove.getNode()
+            , extraMove.getColorIndex());
+
+        if (LowerBounds.forGraph(newGraph, finalColor)
+            > extraMoveCount - 1 + dumbMoveCount) {
+          continue;
+        }
+
+        if (transpositionTable.isKnownUnsolvable(newGraph
+            , finalColor, extraMoveCount - 1, dumbMoveCount)) {
+          continue;
+        }
+
+        List<Move> newExtraMoves = Lists.newArrayList(extraMoves);
+        newExtraMoves.add(extraMove);
+
+        tasks.add(new ExtraMoveTask(extraMoveCount - 1
+            , newExtraMoves
+            , newGraph
+            , new PathSet(paths, extraMove.getNode(), newGraph)
+            , dumbMoveCount
+            , finalColor
+            , solved
+            , token));
+      }
+
+      // Fork in reverse so this thread pops the likely candidates first while
+      // idle threads steal from the other end
+      for (int i = tasks.size() - 1; i >= 0; i--) {
+        tasks.get(i).fork();
+      }
+
+      Optional<List<Move>> result = Optional.absent();
+
+      for (ExtraMoveTask task : tasks) {
+        Optional<List<Move>> taskResult = task.join();
+
+        if (taskResult.isPresent()) {
+          if (!result.isPresent()) {
+            result = taskResult;
+          }
+        }
+        else if (!solved.get() && !token.isCancelled()) {
+          // Only a task that ran to completion proves there is no solution
+          transpositionTable.storeUnsolvable(task.graph
+              , finalColor, task.extraMoveCount, dumbMoveCount);
+        }
+      }
+
+      return result;
+    }
+  }
 }
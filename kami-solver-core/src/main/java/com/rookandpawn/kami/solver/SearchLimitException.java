@@ -0,0 +1,20 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * Thrown by a solver that gave up before it could tell whether there is a
+ * solution, such as when it ran out of room for its states.  Unlike a search
+ * that finds nothing, this proves nothing about the graph
+ */
+public class SearchLimitException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SearchLimitException(String message) {
+    super(message);
+  }
+
+  public SearchLimitException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
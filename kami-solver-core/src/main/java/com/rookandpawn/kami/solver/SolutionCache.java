@@ -0,0 +1,317 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Record of what searches have already found, kept in a file so it lasts from
+ * one run to the next.  Puzzles are recognized by the canonical form of their
+ * graph that ignores which color is which, so the same puzzle is found again
+ * whatever order its nodes were extracted in and whatever colors it was
+ * drawn with.  For each puzzle the shortest solution found and the largest
+ * number of moves known not to be enough are kept.
+ * <p>
+ * The file is only ever appended to.  Each record is a length, a type, the
+ * form's encoding and a move count, and a solution record follows that with
+ * its moves as positions in the canonical order of the nodes and colors.  The
+ * whole file is read through a memory map when the cache is opened, and a
+ * record cut short by a crash is ignored
+ */
+public class SolutionCache implements Closeable {
+
+  private static final byte SOLUTION = 1;
+  private static final byte UNSOLVABLE = 2;
+
+  /**
+   * What is known about one puzzle.  Solution moves are stored as canonical
+   * node and color positions
+   */
+  private static final class Entry {
+    private short[] solutionNodes;
+    private byte[] solutionColors;
+    private int unsolvableMoveCount = -1;
+  }
+
+  /**
+   * Encoding of a canonical form that can be used as a map key
+   */
+  private static final class Key {
+    private final int[] code;
+    private final int hash;
+
+    Key(int[] code) {
+      this.code = code;
+      this.hash = Arrays.hashCode(code);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.equals(code, ((Key)obj).code);
+    }
+  }
+
+  private final Map<Key,Entry> entries = Maps.newHashMap();
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  /**
+   * Open the cache stored in the given file, creating the file if it does
+   * not exist
+   * @param file
+   * @throws IOException
+   */
+  public SolutionCache(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    this.channel = this.file.getChannel();
+
+    long size = channel.size();
+
+    if (size > 0) {
+      load(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Read every complete record in the given buffer into the index
+   * @param buffer
+   */
+  private void load(MappedByteBuffer buffer) {
+    while (buffer.remaining() >= 4) {
+      int length = buffer.getInt();
+
+      if (length < 0 || length > buffer.remaining()) {
+        break;
+      }
+
+      ByteBuffer record = buffer.slice();
+
+      record.limit(length);
+      buffer.position(buffer.position() + length);
+
+      byte type = record.get();
+      int[] code = new int[record.getInt()];
+
+      for (int i = 0; i < code.length; i++) {
+        code[i] = record.getInt();
+      }
+
+      int moveCount = record.getShort();
+      Entry entry = getEntry(new Key(code));
+
+      if (type == UNSOLVABLE) {
+        entry.unsolvableMoveCount
+            = Math.max(entry.unsolvableMoveCount, moveCount);
+        continue;
+      }
+
+      short[] nodes = new short[moveCount];
+      byte[] colors = new byte[moveCount];
+
+      for (int i = 0; i < moveCount; i++) {
+        nodes[i] = record.getShort();
+        colors[i] = record.get();
+      }
+
+      if (entry.solutionNodes == null
+          || moveCount < entry.solutionNodes.length) {
+        entry.solutionNodes = nodes;
+        entry.solutionColors = colors;
+      }
+    }
+  }
+
+  private Entry getEntry(Key key) {
+    Entry result = entries.get(key);
+
+    if (result == null) {
+      result = new Entry();
+      entries.put(key, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param form form of the graph from CanonicalForm.ofColorClasses
+   * @param moveCount most moves the solution may have
+   * @return a known solution of the graph with at most the given number of
+   * moves or absent if none is known
+   */
+  public synchronized Optional<List<Move>> findSolution(Graph graph
+      , CanonicalForm form
+      , int moveCount) {
+    Entry entry = entries.get(new Key(form.getCode()));
+
+    if (entry == null || entry.solutionNodes == null
+        || entry.solutionNodes.length > moveCount) {
+      return Optional.absent();
+    }
+
+    List<Move> result = Lists.newArrayList();
+
+    for (int i = 0; i < entry.solutionNodes.length; i++) {
+      result.add(graph.createMove(form.getOrder()[entry.solutionNodes[i]]
+          , form.getColorOrder()[entry.solutionColors[i]]));
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * @param form form of the graph from CanonicalForm.ofColorClasses
+   * @param moveCount
+   * @return true if the graph is known to have no solution with the given
+   * number of moves or fewer
+   */
+  public synchronized boolean isKnownUnsolvable(CanonicalForm form
+      , int moveCount) {
+    Entry entry = entries.get(new Key(form.getCode()));
+
+    return entry != null && entry.unsolvableMoveCount >= moveCount;
+  }
+
+  /**
+   * Record a solution of a graph if it is shorter than the one known
+   * @param form form of the graph from CanonicalForm.ofColorClasses
+   * @param solution
+   * @throws IOException
+   */
+  public synchronized void storeSolution(CanonicalForm form
+      , List<Move> solution) throws IOException {
+    Key key = new Key(form.getCode());
+    Entry entry = getEntry(key);
+
+    if (entry.solutionNodes != null
+        && entry.solutionNodes.length <= solution.size()) {
+      return;
+    }
+
+    // Canonical positions of each node and color
+    short[] nodePositions = new short[Math.max(1, max(form.getOrder()) + 1)];
+    byte[] colorPositions = new byte[form.getColorOrder().length];
+
+    for (short i = 0; i < form.getOrder().length; i++) {
+      nodePositions[form.getOrder()[i]] = i;
+    }
+
+    for (byte i = 0; i < colorPositions.length; i++) {
+      colorPositions[form.getColorOrder()[i]] = i;
+    }
+
+    short[] nodes = new short[solution.size()];
+    byte[] colors = new byte[solution.size()];
+
+    for (int i = 0; i < nodes.length; i++) {
+      Move move = solution.get(i);
+
+      nodes[i] = nodePositions[move.getNode()];
+      colors[i] = colorPositions[move.getColorIndex()];
+    }
+
+    ByteBuffer record = createRecord(SOLUTION, key, nodes.length
+        , nodes.length * 3);
+
+    for (int i = 0; i < nodes.length; i++) {
+      record.putShort(nodes[i]);
+      record.put(colors[i]);
+    }
+
+    append(record);
+
+    entry.solutionNodes = nodes;
+    entry.solutionColors = colors;
+  }
+
+  /**
+   * Record that a graph has no solution with the given number of moves or
+   * fewer
+   * @param form form of the graph from CanonicalForm.ofColorClasses
+   * @param moveCount
+   * @throws IOException
+   */
+  public synchronized void storeUnsolvable(CanonicalForm form, int moveCount)
+      throws IOException {
+    Key key = new Key(form.getCode());
+    Entry entry = getEntry(key);
+
+    if (entry.unsolvableMoveCount >= moveCount) {
+      return;
+    }
+
+    append(createRecord(UNSOLVABLE, key, moveCount, 0));
+
+    entry.unsolvableMoveCount = moveCount;
+  }
+
+  /**
+   * Start a record with everything but the moves
+   * @param type
+   * @param key
+   * @param moveCount
+   * @param movesLength bytes the moves will take
+   * @return
+   */
+  private static ByteBuffer createRecord(byte type
+      , Key key
+      , int moveCount
+      , int movesLength) {
+    int length = 1 + 4 + key.code.length * 4 + 2 + movesLength;
+    ByteBuffer result = ByteBuffer.allocate(4 + length);
+
+    result.putInt(length);
+    result.put(type);
+    result.putInt(key.code.length);
+
+    for (int value : key.code) {
+      result.putInt(value);
+    }
+
+    result.putShort((short)moveCount);
+
+    return result;
+  }
+
+  private void append(ByteBuffer record) throws IOException {
+    record.flip();
+
+    long position = channel.size();
+
+    while (record.hasRemaining()) {
+      position += channel.write(record, position);
+    }
+  }
+
+  private static int max(short[] values) {
+    int result = -1;
+
+    for (short value : values) {
+      result = Math.max(result, value);
+    }
+
+    return result;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    file.close();
+  }
+
+}
@@ -0,0 +1,17 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+
+/**
+ * Receiver for the solutions found while a search is still running
+ */
+public interface SolutionListener {
+
+  /**
+   * Called every time a solution is found that is better than the ones before
+   * it
+   * @param solution
+   */
+  void onSolution(List<Move> solution);
+
+}
@@ -0,0 +1,124 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The engines available to solve connected graphs
+ */
+public enum SolverEngine {
+
+  /**
+   * Brute force over every color sequence. Finds solutions of exactly the
+   * requested length
+   */
+  DUMB {
+    @Override
+    public ConnectedGraphSolver create(Graph graph
+        , PathSet paths
+        , ForkJoinPool pool) {
+      return new DumbSearch(graph, paths, pool);
+    }
+
+    @Override
+    public ConnectedGraphSolver create(Graph graph
+        , PathSet paths
+        , ForkJoinPool pool
+        , int worker) {
+      return new DumbSearch(graph, paths, pool, EvaluationMode.DEPTH_FIRST
+          , worker);
+    }
+  }
+
+  /**
+   * Iterative deepening A* with admissible lower bounds.  Finds the shortest
+   * solution no longer than the requested length
+   */
+  , IDA_STAR {
+    @Override
+    public ConnectedGraphSolver create(Graph graph
+        , PathSet paths
+        , ForkJoinPool pool) {
+      return new IdaStarSearch(graph, paths);
+    }
+  }
+
+  /**
+   * Breadth first search over every reachable state.  Finds the shortest
+   * solution of any shape no longer than the requested length, but only for
+   * small graphs
+   */
+  , EXACT {
+    @Override
+    public ConnectedGraphSolver create(Graph graph
+        , PathSet paths
+        , ForkJoinPool pool) {
+      return new ExactSearch(graph);
+    }
+
+    @Override
+    public boolean triesAllMoves() {
+      return true;
+    }
+
+    @Override
+    public boolean isComplete() {
+      return true;
+    }
+  };
+
+  /**
+   * @return true if the engine's solutions can start with moves anywhere on
+   * the graph, so there is no point trying extra moves ahead of it
+   */
+  public boolean triesAllMoves() {
+    return false;
+  }
+
+  /**
+   * @return true if the engine finds a solution whenever there is one, so
+   * finding none proves there is none.  The others only try the moves their
+   * heuristics pick
+   */
+  public boolean isComplete() {
+    return false;
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param pool pool the solver may use for parallel work or null to solve on
+   *        the calling thread
+   * @return a new solver for the given graph
+   */
+  public ConnectedGraphSolver create(Graph graph, ForkJoinPool pool) {
+    return create(graph, new PathSet(graph), pool);
+  }
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   * @param pool pool the solver may use for parallel work or null to solve on
+   *        the calling thread
+   * @return a new solver for the given graph
+   */
+  public abstract ConnectedGraphSolver create(Graph graph
+      , PathSet paths
+      , ForkJoinPool pool);
+
+  /**
+   * @param graph graph to solve
+   * @param paths paths of the given graph
+   * @param pool pool the solver may use for parallel work or null to solve on
+   *        the calling thread
+   * @param worker number of the search the solver works for among several
+   *        searching the same graph.  Solvers for different workers try
+   *        their choices in different orders where the engine allows it
+   * @return a new solver for the given graph
+   */
+  public ConnectedGraphSolver create(Graph graph
+      , PathSet paths
+      , ForkJoinPool pool
+      , int worker) {
+    return create(graph, paths, pool);
+  }
+
+}
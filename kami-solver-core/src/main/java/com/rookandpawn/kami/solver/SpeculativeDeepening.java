@@ -0,0 +1,120 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the passes of an iterative deepening search several at a time.  Every
+ * pass that fails has to search everything, so on a machine with spare
+ * threads the passes after the next one are started before it finishes.  The
+ * passes are still decided in order: a pass only counts once all the ones
+ * before it have failed, and as soon as any pass succeeds the ones after it
+ * are cancelled since they can no longer be the answer
+ */
+final class SpeculativeDeepening {
+
+  /**
+   * One pass of a search
+   * @param <T>
+   */
+  interface Pass<T> {
+
+    /**
+     * @param step number of the pass, such as the length it searches for
+     * @param token token to stop the pass early
+     * @return the result of the pass or absent if it failed or was cancelled
+     */
+    Optional<T> run(int step, CancellationToken token);
+  }
+
+  private SpeculativeDeepening() {}
+
+  /**
+   * @param first first step
+   * @param last last step to try
+   * @param width most passes to run at once
+   * @param pool pool to run the passes on
+   * @param token token to stop the search early
+   * @param pass
+   * @return the result of the first step that succeeds or absent if none
+   * does before the token is cancelled
+   * @throws SearchLimitException if a pass gave up before the steps ahead of
+   * it were decided
+   */
+  static <T> Optional<T> findFirst(int first
+      , int last
+      , int width
+      , ForkJoinPool pool
+      , CancellationToken token
+      , Pass<T> pass) {
+
+    Map<Integer, ForkJoinTask<Optional<T>>> tasks = Maps.newHashMap();
+    Map<Integer, CancellationToken> tokens = Maps.newConcurrentMap();
+
+    int next = first;
+
+    for (int step = first; step <= last && !token.isCancelled(); step++) {
+
+      // Keep the pool busy with the steps after this one
+      while (next <= last && next - step < width) {
+        int nextStep = next++;
+        CancellationToken stepToken = token.createChild();
+
+        tokens.put(nextStep, stepToken);
+        tasks.put(nextStep, pool.submit(() -> {
+          Optional<T> result = stepToken.isCancelled()
+              ? Optional.absent()
+              : pass.run(nextStep, stepToken);
+
+          // Later steps cannot be the answer any more
+          if (result.isPresent()) {
+            tokens.forEach((s, t) -> {
+              if (s > nextStep) {
+                t.cancel();
+              }
+            });
+          }
+
+          return result;
+        }));
+      }
+
+      ForkJoinTask<Optional<T>> task = tasks.remove(step);
+
+      tokens.remove(step);
+      task.quietlyJoin();
+
+      if (task.isCompletedAbnormally()) {
+        cancelAll(tasks, tokens);
+      }
+
+      Optional<T> result = task.join();
+
+      if (result.isPresent()) {
+        cancelAll(tasks, tokens);
+        return result;
+      }
+    }
+
+    cancelAll(tasks, tokens);
+
+    return Optional.absent();
+  }
+
+  private static <T> void cancelAll(Map<Integer, ForkJoinTask<T>> tasks
+      , Map<Integer, CancellationToken> tokens) {
+    for (CancellationToken token : tokens.values()) {
+      token.cancel();
+    }
+
+    // Passes that were cancelled or gave up are not needed any more
+    for (ForkJoinTask<T> task : tasks.values()) {
+      task.quietlyJoin();
+    }
+  }
+
+}
@@ -0,0 +1,227 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File of packed states in ascending order, written and read through memory
+ * maps a window at a time.  Sorted states mostly share their first words with
+ * the state before them, so each state is stored as the number of leading
+ * words it shares with the one before, the difference in the first word that
+ * is not shared and the rest of its words, all but the count as variable
+ * length numbers.  A file only holds its states, so the number of them has to
+ * be known to read it back
+ */
+final class StateFile {
+
+  private static final int WINDOW_SIZE = 1 << 24;
+
+  private StateFile() {}
+
+  /**
+   * @param state
+   * @param other
+   * @return how the given states compare in the order of the file.  Packed
+   * states never use the top bit of a word, so plain comparison of the words
+   * is enough
+   */
+  static int compare(long[] state, int offset, long[] other, int otherOffset
+      , int wordCount) {
+    for (int w = 0; w < wordCount; w++) {
+      int result = Long.compare(state[offset + w], other[otherOffset + w]);
+
+      if (result != 0) {
+        return result;
+      }
+    }
+
+    return 0;
+  }
+
+  private static int maxRecordSize(int wordCount) {
+    return 1 + wordCount * 10;
+  }
+
+  /**
+   * Writer of states that must be given in strictly ascending order
+   */
+  static final class Writer implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int wordCount;
+    private final long[] previous;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long count;
+
+    Writer(File file, int wordCount) throws IOException {
+      this.file = new RandomAccessFile(file, "rw");
+      this.channel = this.file.getChannel();
+      this.wordCount = wordCount;
+      this.previous = new long[wordCount];
+      this.window = channel.map(FileChannel.MapMode.READ_WRITE
+          , 0, WINDOW_SIZE);
+    }
+
+    void write(long[] state) throws IOException {
+      write(state, 0);
+    }
+
+    /**
+     * @param states
+     * @param offset start of the state to write in the given array
+     * @throws IOException
+     */
+    void write(long[] states, int offset) throws IOException {
+      if (window.remaining() < maxRecordSize(wordCount)) {
+        windowStart += window.position();
+        window = channel.map(FileChannel.MapMode.READ_WRITE
+            , windowStart, WINDOW_SIZE);
+      }
+
+      int shared = 0;
+
+      if (count > 0) {
+        while (states[offset + shared] == previous[shared]) {
+          shared++;
+        }
+      }
+
+      window.put((byte)shared);
+      putLong(states[offset + shared] - previous[shared]);
+
+      for (int w = shared + 1; w < wordCount; w++) {
+        putLong(states[offset + w]);
+      }
+
+      System.arraycopy(states, offset, previous, 0, wordCount);
+      count++;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    private void putLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        window.put((byte)((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+
+      window.put((byte)value);
+    }
+
+    /**
+     * Cut off the unused end of the last window
+     */
+    @Override
+    public void close() throws IOException {
+      long size = windowStart + window.position();
+
+      window = null;
+
+      try {
+        channel.truncate(size);
+      }
+      catch (IOException ex) {
+        // Some systems refuse to shrink a mapped file, which only wastes
+        // space since readers stop after the known number of states
+      }
+
+      file.close();
+    }
+  }
+
+  /**
+   * Reader of the states in a file in the order they were written
+   */
+  static final class Reader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int wordCount;
+    private final long[] previous;
+    private final long size;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long remaining;
+
+    /**
+     * @param file
+     * @param wordCount
+     * @param count number of states in the file
+     * @throws IOException
+     */
+    Reader(File file, int wordCount, long count) throws IOException {
+      this.file = new RandomAccessFile(file, "r");
+      this.channel = this.file.getChannel();
+      this.wordCount = wordCount;
+      this.previous = new long[wordCount];
+      this.size = channel.size();
+      this.remaining = count;
+      this.window = channel.map(FileChannel.MapMode.READ_ONLY
+          , 0, Math.min(WINDOW_SIZE, size));
+    }
+
+    /**
+     * @param state filled with the next state
+     * @return false if there are no more states
+     * @throws IOException
+     */
+    boolean next(long[] state) throws IOException {
+      if (remaining == 0) {
+        return false;
+      }
+
+      if (window.remaining() < maxRecordSize(wordCount)
+          && windowStart + window.limit() < size) {
+        windowStart += window.position();
+        window = channel.map(FileChannel.MapMode.READ_ONLY
+            , windowStart, Math.min(WINDOW_SIZE, size - windowStart));
+      }
+
+      int shared = window.get();
+
+      System.arraycopy(previous, 0, state, 0, shared);
+      state[shared] = previous[shared] + getLong();
+
+      for (int w = shared + 1; w < wordCount; w++) {
+        state[w] = getLong();
+      }
+
+      System.arraycopy(state, 0, previous, 0, wordCount);
+      remaining--;
+
+      return true;
+    }
+
+    private long getLong() {
+      long result = 0;
+      int shift = 0;
+      byte b;
+
+      do {
+        b = window.get();
+        result |= (long)(b & 0x7F) << shift;
+        shift += 7;
+      }
+      while (b < 0);
+
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      window = null;
+      file.close();
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+
+/**
+ * Set of game states packed as the color of every node at 3 bits each, with
+ * 21 nodes to a long so no color is split between words.  The states are
+ * kept one after another in a single array and numbered in the order they
+ * were added, and the hash table holds only those numbers, so each state
+ * costs its packed words plus a few ints and no objects
+ */
+final class StateSet {
+
+  static final int BITS_PER_NODE = 3;
+  static final int MAX_COLOR_COUNT = 1 << BITS_PER_NODE;
+
+  private static final int NODES_PER_WORD = Long.SIZE / BITS_PER_NODE;
+  private static final long COLOR_MASK = MAX_COLOR_COUNT - 1;
+
+  /**
+   * @param nodeCount
+   * @return the number of longs a state of the given number of nodes takes
+   */
+  static int wordCount(int nodeCount) {
+    return Math.max(1, (nodeCount + NODES_PER_WORD - 1) / NODES_PER_WORD);
+  }
+
+  static byte getColor(long[] state, int node) {
+    return (byte)((state[node / NODES_PER_WORD]
+        >>> (node % NODES_PER_WORD * BITS_PER_NODE)) & COLOR_MASK);
+  }
+
+  static void setColor(long[] state, int node, byte color) {
+    int shift = node % NODES_PER_WORD * BITS_PER_NODE;
+    int word = node / NODES_PER_WORD;
+
+    state[word] = (state[word] & ~(COLOR_MASK << shift))
+        | ((long)color << shift);
+  }
+
+  private final int wordCount;
+
+  private long[] states;
+  private int size;
+
+  /**
+   * Index of each state plus one, or zero for an empty slot
+   */
+  private int[] table;
+  private int mask;
+
+  /**
+   * @param wordCount length of every state this set holds
+   */
+  StateSet(int wordCount) {
+    this.wordCount = wordCount;
+    this.states = new long[wordCount * 1024];
+    this.table = new int[2048];
+    this.mask = table.length - 1;
+  }
+
+  /**
+   * @param state
+   * @return the index of the given state if it was new, or -1 if it was
+   * already in the set
+   */
+  int add(long[] state) {
+    int slot = hash(state, 0) & mask;
+
+    while (table[slot] != 0) {
+      if (matches(table[slot] - 1, state)) {
+        return -1;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    if ((size + 1) * wordCount > states.length) {
+      states = Arrays.copyOf(states, states.length * 2);
+    }
+
+    System.arraycopy(state, 0, states, size * wordCount, wordCount);
+    table[slot] = ++size;
+
+    // Keep the table at most half full so probe chains stay short
+    if (size * 2 > table.length) {
+      grow();
+    }
+
+    return size - 1;
+  }
+
+  /**
+   * Copy the state with the given index
+   * @param index
+   * @param into array of at least the state's length
+   */
+  void get(int index, long[] into) {
+    System.arraycopy(states, index * wordCount, into, 0, wordCount);
+  }
+
+  int size() {
+    return size;
+  }
+
+  private boolean matches(int index, long[] state) {
+    int offset = index * wordCount;
+
+    for (int w = 0; w < wordCount; w++) {
+      if (states[offset + w] != state[w]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private int hash(long[] words, int offset) {
+    long h = 0;
+
+    for (int w = 0; w < wordCount; w++) {
+      h = (h + words[offset + w]) * 0x9E3779B97F4A7C15L;
+      h ^= h >>> 29;
+    }
+
+    return (int)(h ^ (h >>> 32));
+  }
+
+  private void grow() {
+    this.table = new int[table.length * 2];
+    this.mask = table.length - 1;
+
+    for (int index = 0; index < size; index++) {
+      int slot = hash(states, index * wordCount) & mask;
+
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+
+      table[slot] = index + 1;
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size record of graph states that are known to have no solution with a
+ * given number of extra moves followed by a given number of dumb moves.  When
+ * two states land in the same slot, the one that took more moves to rule out
+ * wins, so the table never grows beyond its initial size and keeps the
+ * entries that save the most work.  Entries are single longs holding a hash
+ * of the state in their high bits and the number of moves in their low
+ * byte, and are replaced with compare and set, so the table can be shared
+ * between the threads of several searches without locking
+ */
+public class TranspositionTable {
+
+  private static final int DEFAULT_SIZE_BITS = 18;
+
+  private static final long MOVE_COUNT_MASK = 0xff;
+
+  private final AtomicLongArray entries;
+  private final int mask;
+
+  public TranspositionTable() {
+    this(DEFAULT_SIZE_BITS);
+  }
+
+  /**
+   * @param sizeBits log2 of the number of entries to hold
+   */
+  public TranspositionTable(int sizeBits) {
+    this.entries = new AtomicLongArray(1 << sizeBits);
+    this.mask = entries.length() - 1;
+  }
+
+  /**
+   * @param graph
+   * @param finalColor
+   * @param extraMoveCount
+   * @param dumbMoveCount
+   * @return true if the given graph was previously recorded as having no
+   * solution for the given parameters
+   */
+  public boolean isKnownUnsolvable(Graph graph
+      , byte finalColor
+      , int extraMoveCount
+      , int dumbMoveCount) {
+    long entry = entry(graph, finalColor, extraMoveCount, dumbMoveCount);
+
+    return entries.get(slot(entry)) == entry;
+  }
+
+  /**
+   * Record that the given graph has no solution for the given parameters
+   * @param graph
+   * @param finalColor
+   * @param extraMoveCount
+   * @param dumbMoveCount
+   */
+  public void storeUnsolvable(Graph graph
+      , byte finalColor
+      , int extraMoveCount
+      , int dumbMoveCount) {
+    long entry = entry(graph, finalColor, extraMoveCount, dumbMoveCount);
+    int slot = slot(entry);
+
+    while (true) {
+      long old = entries.get(slot);
+
+      if (old == entry
+          || (old & MOVE_COUNT_MASK) > (entry & MOVE_COUNT_MASK)) {
+        return;
+      }
+
+      if (entries.compareAndSet(slot, old, entry)) {
+        return;
+      }
+    }
+  }
+
+  private int slot(long entry) {
+    return (int)(entry >>> Byte.SIZE) & mask;
+  }
+
+  private static long entry(Graph graph
+      , byte finalColor
+      , int extraMoveCount
+      , int dumbMoveCount) {
+    long key = graph.getZobristHash()
+        ^ Zobrist.mix(((finalColor & 0xffL) << 48)
+            | ((long)extraMoveCount << 24)
+            | dumbMoveCount);
+
+    // Zero marks an empty slot
+    key &= ~MOVE_COUNT_MASK;
+
+    if (key == 0) {
+      key = MOVE_COUNT_MASK + 1;
+    }
+
+    return key | Math.min(MOVE_COUNT_MASK, extraMoveCount + dumbMoveCount);
+  }
+}
@@ -0,0 +1,65 @@
+package com.rookandpawn.kami.solver;
+
+/**
+ * Source of the random keys used to hash graph states. Instead of holding a
+ * table of random numbers for every node/color combination, the keys are
+ * derived by mixing the inputs, so graphs of any size can be hashed without
+ * any setup
+ */
+public final class Zobrist {
+
+  private static final long NODE_SEED = 0x2545F4914F6CDD1DL;
+  private static final long MERGE_SEED = 0x9E3779B97F4A7C15L;
+
+  private Zobrist() {}
+
+  /**
+   * @param node
+   * @param color
+   * @return the key representing the given node having the given color
+   */
+  public static long nodeKey(short node, byte color) {
+    return mix(NODE_SEED ^ ((long)node << 8) ^ (color & 0xff));
+  }
+
+  /**
+   * @param removedNode
+   * @param intoNode
+   * @return the key representing the given removed node having been absorbed
+   * into the other given node
+   */
+  public static long mergeKey(short removedNode, short intoNode) {
+    return mix(MERGE_SEED ^ ((long)removedNode << 16) ^ (intoNode & 0xffff));
+  }
+
+  /**
+   * Calculate the hash of the given node colors from scratch.  Nodes with
+   * negative colors are treated as absent
+   * @param nodes
+   * @return
+   */
+  public static long hash(byte[] nodes) {
+    long result = 0;
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (nodes[node] >= 0) {
+        result ^= nodeKey(node, nodes[node]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Finalizer from the SplitMix64 generator. It spreads every input bit over
+   * the whole output
+   * @param value
+   * @return
+   */
+  public static long mix(long value) {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,118 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ *
+ */
+public class BeamSearchTest {
+
+  /**
+   * @param graph
+   * @param moves
+   * @return the graph left after making the given moves
+   */
+  private static Graph play(Graph graph, List<Move> moves) {
+    for (Move move : moves) {
+      graph = graph.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    return graph;
+  }
+
+  /**
+   * @param graph
+   * @return the color of the given graph's nodes or -1 if there is more than
+   * one
+   */
+  private static byte getOnlyColor(Graph graph) {
+    byte result = -1;
+
+    for (byte color : graph.getNodes()) {
+      if (color >= 0) {
+        if (result >= 0 && color != result) {
+          return -1;
+        }
+
+        result = color;
+      }
+    }
+
+    return result;
+  }
+
+  @Test
+  public void testSolutions() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+    Graph[] graphs = { puzzles.p1_2, puzzles.p1_6, puzzles.p2_6, puzzles.p4_6
+        , SearchTest.createConjectureBreaker() };
+    int[] lengths = { 2, 3, 4, 5, 6 };
+
+    for (int i = 0; i < graphs.length; i++) {
+      List<Move> solution = new BeamSearch(graphs[i]).go();
+
+      Assert.assertTrue(solution.size() >= lengths[i]);
+      Assert.assertEquals(1, play(graphs[i], solution).getActualNodeCount());
+    }
+  }
+
+  @Test
+  public void testFinalColor() {
+    Graph graph = new DumbSearchTest().p2_6;
+
+    for (byte finalColor = 0
+        ; finalColor < graph.getColors().length
+        ; finalColor++) {
+      Graph solved = play(graph, new BeamSearch(graph).go(finalColor));
+
+      Assert.assertEquals(1, solved.getActualNodeCount());
+      Assert.assertEquals(finalColor, getOnlyColor(solved));
+    }
+  }
+
+  @Test
+  public void testDisjointGraph() {
+    Graph graph = Graph.builder()
+        .withNode(1, "p")
+        .withNode(2, "y")
+        .withNode(3, "p")
+        .withNode(4, "y")
+        .withNode(5, "b")
+        .withNode(6, "y")
+        .withNode(7, "p")
+        .withEdges(1, 2)
+        .withEdges(2, 3)
+        .withEdges(4, 5)
+        .withEdges(5, 6)
+        .build();
+
+    Assert.assertTrue(getOnlyColor(play(graph
+        , new BeamSearch(graph).go())) >= 0);
+  }
+
+  /**
+   * The quick solution is the first answer an anytime search has, and the
+   * search still goes on to the shortest
+   */
+  @Test
+  public void testAnytimeStartsWithQuickSolution() {
+    Graph graph = SearchTest.createConjectureBreaker();
+    Search search = new Search(graph);
+    List<List<Move>> solutions = Lists.newArrayList();
+
+    Optional<List<Move>> solution = search.goAnytime(10
+        , new CancellationToken()
+        , solutions::add);
+
+    Assert.assertSame(search.getQuickSolution(), solutions.get(0));
+    Assert.assertEquals(6, solution.get().size());
+    Assert.assertFalse(search.go(5).isPresent());
+  }
+
+}
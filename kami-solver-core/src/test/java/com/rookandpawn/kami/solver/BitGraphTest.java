@@ -0,0 +1,180 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BitGraphTest {
+
+  private final Graph graph = Graph.builder()
+      .withNode(1, "purple")
+      .withNode(2, "yellow")
+      .withNode(3, "red")
+      .withNode(4, "yellow")
+      .withNode(5, "green")
+      .withNode(6, "purple")
+      .withNode(7, "green")
+      .withNode(8, "purple")
+      .withNode(9, "red")
+      .withNode(10, "maroon")
+      .withEdges(1, 2, 10)
+      .withEdges(2, 3)
+      .withEdges(3, 4)
+      .withEdges(4, 5)
+      .withEdges(5, 6)
+      .withEdges(6, 7)
+      .withEdges(7, 8)
+      .withEdges(8, 9)
+      .withEdges(9, 10)
+      .build();
+
+  /**
+   * The bit mask evaluator has to agree with the queue based one for every
+   * sequence, start node, and final color
+   */
+  @Test
+  public void testMatchesFastGraph() {
+    FastGraph fastGraph = new FastGraph(graph);
+    BitGraph bitGraph = new BitGraph(graph);
+
+    int colorWrapNumber = graph.getColors().length - 1;
+    byte[] colorSeq = new byte[5];
+
+    for (short node = 1; node <= 10; node++) {
+      for (byte finalColor = -1
+          ; finalColor < graph.getColors().length
+          ; finalColor++) {
+
+        int sequenceCount = (int)Math.pow(colorWrapNumber, colorSeq.length);
+
+        for (int seqNum = 0; seqNum < sequenceCount; seqNum++) {
+          int remainder = seqNum;
+
+          for (int i = 0; i < colorSeq.length; i++) {
+            colorSeq[i] = (byte)(remainder % colorWrapNumber);
+            remainder /= colorWrapNumber;
+          }
+
+          Assert.assertEquals(
+              fastGraph.evaluate(node, colorSeq, finalColor)
+              , bitGraph.evaluate(node, colorSeq, finalColor));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testChangeColorMatchesEdges() {
+    Graph changed = graph
+        .changeNodeColor((short)2, "purple")
+        .changeNodeColor((short)10, "purple");
+
+    Assert.assertEquals(8, changed.getActualNodeCount());
+
+    for (short node = 0; node < changed.getNodes().length; node++) {
+      short[] neighbors = changed.getEdges()[node];
+
+      if (neighbors == null) {
+        Assert.assertNull(changed.getEdgeMasks()[node]);
+        continue;
+      }
+
+      Assert.assertArrayEquals(neighbors
+          , Bits.toShortArray(changed.getEdgeMasks()[node]));
+    }
+
+    Assert.assertArrayEquals(new short[] { 3, 9 }, changed.getEdges()[10]);
+    Assert.assertArrayEquals(new short[] { 4, 10 }, changed.getEdges()[3]);
+  }
+
+  /**
+   * Searching depth first has to find the same solution as counting up
+   * through the sequences and skipping ahead by the results of evaluate
+   */
+  @Test
+  public void testFindSolutionMatchesReplay() {
+    Random random = new Random(3);
+    Graph.Builder builder = Graph.builder();
+
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 5; col++) {
+        int id = row * 5 + col;
+
+        builder.withNode(id, Integer.toString(random.nextInt(4)));
+
+        if (col > 0) {
+          builder.withEdge(id, id - 1);
+        }
+        if (row > 0) {
+          builder.withEdge(id, id - 5);
+        }
+      }
+    }
+
+    for (Graph g : new Graph[] { graph, builder.build() }) {
+      for (GraphEvaluator f
+          : new GraphEvaluator[] { new FastGraph(g), new BitGraph(g) }) {
+        for (int length = 1; length <= 6; length++) {
+          for (byte finalColor = -1
+              ; finalColor < g.getColors().length
+              ; finalColor++) {
+            for (short node = 0; node < g.getNodes().length; node++) {
+              if (g.getNodes()[node] < 0) {
+                continue;
+              }
+
+              byte[] expected = new byte[length];
+              byte[] actual = new byte[length];
+
+              boolean found = replay(f, node, expected, finalColor
+                  , g.getColors().length - 1);
+
+              Assert.assertEquals(found
+                  , f.findSolution(node, actual, finalColor, () -> false));
+
+              if (found) {
+                Assert.assertArrayEquals(expected, actual);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean replay(GraphEvaluator f
+      , short node
+      , byte[] solution
+      , byte finalColor
+      , int colorWrapNumber) {
+    Arrays.fill(solution, (byte)0);
+
+    while (true) {
+      int result = f.evaluate(node, solution, finalColor);
+
+      if (result == solution.length) {
+        return true;
+      }
+
+      int index = result < 0 ? solution.length - 1 : result;
+
+      for (int i = index + 1; i < solution.length; i++) {
+        solution[i] = 0;
+      }
+
+      while (index >= 0 && ++solution[index] >= colorWrapNumber) {
+        solution[index] = 0;
+        index--;
+      }
+
+      if (index < 0) {
+        return false;
+      }
+    }
+  }
+}
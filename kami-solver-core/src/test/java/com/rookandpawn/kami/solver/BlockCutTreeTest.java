@@ -0,0 +1,107 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ *
+ */
+public class BlockCutTreeTest {
+
+  /**
+   * A triangle and a triangle with a tail, joined by a short chain
+   * <pre>
+   *   1       6
+   *   | \   / |
+   *   2-3-4-5 |
+   *          \|
+   *           7-8
+   * </pre>
+   */
+  private static Graph createChain() {
+    return Graph.builder()
+        .withNode(1, "a")
+        .withNode(2, "b")
+        .withNode(3, "c")
+        .withNode(4, "a")
+        .withNode(5, "b")
+        .withNode(6, "c")
+        .withNode(7, "d")
+        .withNode(8, "a")
+        .withEdges(1, 2, 3)
+        .withEdges(2, 3)
+        .withEdges(3, 4)
+        .withEdges(4, 5)
+        .withEdges(5, 6, 7)
+        .withEdges(6, 7)
+        .withEdges(7, 8)
+        .build();
+  }
+
+  private static Set<Short> toSet(short... nodes) {
+    Set<Short> result = Sets.newHashSet();
+
+    for (short node : nodes) {
+      result.add(node);
+    }
+
+    return result;
+  }
+
+  @Test
+  public void testBlocks() {
+    BlockCutTree tree = new BlockCutTree(createChain());
+
+    Assert.assertArrayEquals(new short[] { 3, 4, 5, 7 }, tree.getCutNodes());
+    Assert.assertTrue(tree.isCutNode((short)5));
+    Assert.assertFalse(tree.isCutNode((short)6));
+
+    Set<Set<Short>> blocks = Sets.newHashSet();
+
+    for (short[] block : tree.getBlocks()) {
+      blocks.add(toSet(block));
+    }
+
+    Assert.assertEquals(ImmutableSet.of(
+        toSet((short)1, (short)2, (short)3)
+        , toSet((short)3, (short)4)
+        , toSet((short)4, (short)5)
+        , toSet((short)5, (short)6, (short)7)
+        , toSet((short)7, (short)8)), blocks);
+  }
+
+  /**
+   * From node 1 the chain has to be crossed before the three colors past
+   * node 4 can be taken, which is more than the distance to the far end or
+   * the number of colors
+   */
+  @Test
+  public void testLowerBound() {
+    Graph graph = createChain();
+    PathSet paths = new PathSet(graph);
+    BlockCutTree tree = new BlockCutTree(graph);
+
+    Assert.assertEquals(5, paths.getMaxDistanceFrom((short)1));
+    Assert.assertEquals(6, tree.getLowerBound((short)1, paths, (byte)-1));
+
+    // No node has a solution shorter than its bound
+    for (short node = 1; node <= 8; node++) {
+      int bound = tree.getLowerBound(node, paths, (byte)-1);
+
+      Assert.assertFalse(bound > 0
+          && new FastGraph(graph).findSolution(node, new byte[bound - 1]
+              , (byte)-1, () -> false));
+    }
+
+    int length = new DumbSearch(graph).go().size();
+
+    Assert.assertFalse(new IdaStarSearch(graph)
+        .go(length - 1, (byte)-1).isPresent());
+  }
+
+}
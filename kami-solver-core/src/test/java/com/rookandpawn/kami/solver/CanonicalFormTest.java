@@ -0,0 +1,125 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ *
+ */
+public class CanonicalFormTest {
+
+  private static final String[] COLORS = { "a", "b", "c" };
+
+  /**
+   * Build a grid with random colors, numbering the cells with the given ids
+   * @param colors color of each cell in row order
+   * @param width
+   * @param ids id of each cell in row order
+   * @return
+   */
+  private static Graph createGrid(int[] colors, int width, List<Integer> ids) {
+    Graph.Builder builder = Graph.builder();
+
+    for (int cell = 0; cell < colors.length; cell++) {
+      builder.withNode(ids.get(cell), COLORS[colors[cell]]);
+    }
+
+    for (int cell = 0; cell < colors.length; cell++) {
+      if (cell % width > 0) {
+        builder.withEdge(ids.get(cell), ids.get(cell - 1));
+      }
+      if (cell >= width) {
+        builder.withEdge(ids.get(cell), ids.get(cell - width));
+      }
+    }
+
+    return builder.build();
+  }
+
+  @Test
+  public void testRenumberedGraphsMatch() {
+    Random random = new Random(11);
+
+    for (int trial = 0; trial < 20; trial++) {
+      int width = 2 + random.nextInt(4);
+      int[] colors = new int[width * (2 + random.nextInt(4))];
+
+      for (int cell = 0; cell < colors.length; cell++) {
+        colors[cell] = random.nextInt(COLORS.length);
+      }
+
+      List<Integer> ids = Lists.newArrayList();
+
+      for (int cell = 0; cell < colors.length; cell++) {
+        ids.add(cell);
+      }
+
+      Graph graph = createGrid(colors, width, ids);
+
+      Collections.shuffle(ids, random);
+
+      Graph renumbered = createGrid(colors, width, ids);
+
+      CanonicalForm form = CanonicalForm.of(graph);
+      CanonicalForm renumberedForm = CanonicalForm.of(renumbered);
+
+      Assert.assertEquals(form, renumberedForm);
+      Assert.assertEquals(form.hashCode(), renumberedForm.hashCode());
+
+      short[] nodeMap = form.mapTo(renumberedForm, graph.getNodes().length);
+
+      for (short node = 0; node < graph.getNodes().length; node++) {
+        short mapped = nodeMap[node];
+
+        Assert.assertEquals(graph.getColors()[graph.getNodes()[node]]
+            , renumbered.getColors()[renumbered.getNodes()[mapped]]);
+
+        for (short n : graph.getEdges()[node]) {
+          boolean found = false;
+
+          for (short mappedNeighbor : renumbered.getEdges()[mapped]) {
+            found |= mappedNeighbor == nodeMap[n];
+          }
+
+          Assert.assertTrue(found);
+        }
+      }
+
+      // Recoloring a single cell gives a different graph
+      colors[0] = (colors[0] + 1) % COLORS.length;
+
+      Assert.assertNotEquals(form, CanonicalForm.of(createGrid(colors, width
+          , ids)));
+    }
+  }
+
+  /**
+   * A ring of one color has every node in the same place, so the labelling
+   * has to come from trying them
+   */
+  @Test
+  public void testSymmetricGraph() {
+    Graph.Builder ring = Graph.builder();
+    Graph.Builder otherRing = Graph.builder();
+
+    for (int node = 0; node < 12; node++) {
+      ring.withNode(node, "a");
+      otherRing.withNode(node * 3, "a");
+    }
+
+    for (int node = 0; node < 12; node++) {
+      ring.withEdge(node, (node + 1) % 12);
+      otherRing.withEdge(node * 3, ((node + 5) % 12) * 3);
+    }
+
+    Assert.assertEquals(CanonicalForm.of(ring.build())
+        , CanonicalForm.of(otherRing.build()));
+  }
+
+}
@@ -0,0 +1,139 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ *
+ */
+public class CompactGraphTest {
+
+  /**
+   * Two 6x6 grids side by side with no edges between them, with some nodes
+   * absorbed so the ids have holes
+   * @return
+   */
+  private Graph createGraph() {
+    Random random = new Random(5);
+    Graph.Builder builder = Graph.builder();
+
+    for (int row = 0; row < 6; row++) {
+      for (int col = 0; col < 12; col++) {
+        int id = row * 12 + col;
+
+        builder.withNode(id, Integer.toString(random.nextInt(3)));
+
+        if (col > 0 && col != 6) {
+          builder.withEdge(id, id - 1);
+        }
+        if (row > 0) {
+          builder.withEdge(id, id - 12);
+        }
+      }
+    }
+
+    Graph graph = builder.build();
+
+    for (short node : new short[] { 14, 40, 21, 57 }) {
+      byte color = (byte)((graph.getNodes()[node] + 1) % 3);
+
+      graph = graph.changeNodeColor(node, color);
+    }
+
+    return graph;
+  }
+
+  @Test
+  public void testMatchesGraph() {
+    Graph graph = createGraph();
+    CompactGraph compact = new CompactGraph(graph);
+
+    Assert.assertEquals(graph.getActualNodeCount(), compact.getNodeCount());
+
+    int[] offsets = compact.getOffsets();
+    short[] targets = compact.getTargets();
+
+    for (short node = 0; node < compact.getNodeCount(); node++) {
+      short original = compact.getOriginalId(node);
+
+      Assert.assertEquals(node, compact.getCompactId(original));
+      Assert.assertEquals(graph.getNodes()[original]
+          , compact.getColors()[node]);
+
+      Set<Short> expected = Sets.newHashSet();
+      Set<Short> actual = Sets.newHashSet();
+
+      for (short n : graph.getEdges()[original]) {
+        expected.add(n);
+      }
+
+      for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+        actual.add(compact.getOriginalId(targets[e]));
+      }
+
+      Assert.assertEquals(expected, actual);
+    }
+
+    for (short original = 0; original < graph.getNodes().length; original++) {
+      if (graph.getNodes()[original] < 0) {
+        Assert.assertEquals(-1, compact.getCompactId(original));
+      }
+    }
+  }
+
+  /**
+   * Breadth first order keeps each component together
+   */
+  @Test
+  public void testComponentsAreContiguous() {
+    CompactGraph compact = new CompactGraph(createGraph());
+
+    int switches = 0;
+
+    for (short node = 1; node < compact.getNodeCount(); node++) {
+      boolean left = compact.getOriginalId(node) % 12 < 6;
+      boolean prevLeft = compact.getOriginalId(node - 1) % 12 < 6;
+
+      if (left != prevLeft) {
+        switches++;
+      }
+    }
+
+    Assert.assertEquals(1, switches);
+  }
+
+  @Test
+  public void testSubGraphsEvaluateAsBefore() {
+    List<Graph> subGraphs = createGraph().getSubGraphs();
+
+    Assert.assertEquals(2, subGraphs.size());
+
+    for (Graph subGraph : subGraphs) {
+      FastGraph fastGraph = new FastGraph(subGraph);
+      BitGraph bitGraph = new BitGraph(subGraph);
+
+      for (int length = 1; length <= 4; length++) {
+        for (short node = 0; node < subGraph.getNodes().length; node++) {
+          if (subGraph.getNodes()[node] < 0) {
+            continue;
+          }
+
+          byte[] solution = new byte[length];
+
+          Assert.assertEquals(
+              bitGraph.findSolution(node, solution, (byte)-1, () -> false)
+              , fastGraph.findSolution(node, solution, (byte)-1, () -> false));
+          Assert.assertEquals(bitGraph.evaluate(node, solution, (byte)-1)
+              , fastGraph.evaluate(node, solution, (byte)-1));
+        }
+      }
+    }
+  }
+
+}
@@ -1,10 +1,13 @@
 package com.rookandpawn.kami.solver;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 /**
  *
  */
@@ -146,6 +149,75 @@ public class DumbSearchTest {
     Assert.assertEquals(5, solution.size());
   }
 
+  @Test
+  public void testParallelMatchesSequential() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      for (Graph graph : new Graph[] { p1_6, p2_6, p4_6 }) {
+        List<Move> sequential = new DumbSearch(graph).go();
+        List<Move> parallel = new DumbSearch(graph, pool).go();
+
+        Assert.assertEquals(sequential, parallel);
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSpeculativeLengths() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      for (Graph graph : new Graph[] { p1_6, p2_6, p4_6 }) {
+        DumbSearch search = new DumbSearch(graph, pool);
+
+        search.setLengthsAtOnce(3);
+
+        Assert.assertEquals(new DumbSearch(graph).go().size()
+            , search.go().size());
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testIdaStarMatchesDumbSearch() {
+    Graph[] graphs = new Graph[] { p1_2, p1_6, p2_6, p4_6 };
+
+    for (Graph graph : graphs) {
+      int dumbLength = new DumbSearch(graph).go().size();
+
+      Optional<List<Move>> idaSolution
+          = new IdaStarSearch(graph).go(dumbLength, (byte)-1);
+
+      Assert.assertTrue(idaSolution.isPresent());
+      Assert.assertEquals(dumbLength, idaSolution.get().size());
+
+      Assert.assertFalse(new IdaStarSearch(graph)
+          .go(dumbLength - 1, (byte)-1).isPresent());
+    }
+  }
+
+  /**
+   * Only one start node of each orbit is tried on a symmetric board, which
+   * must not lose the shortest solution
+   */
+  @Test
+  public void testSymmetricBoard() {
+    Graph graph = OrbitsTest.createDiamond(-1);
+    int dumbLength = new DumbSearch(graph).go().size();
+
+    Assert.assertTrue(new IdaStarSearch(graph)
+        .go(dumbLength, (byte)-1).isPresent());
+    Assert.assertFalse(new IdaStarSearch(graph)
+        .go(dumbLength - 1, (byte)-1).isPresent());
+  }
+
   @Test
   public void testDifficultPuzzle() {
     int index = 1;
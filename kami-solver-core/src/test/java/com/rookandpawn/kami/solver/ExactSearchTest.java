@@ -0,0 +1,228 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ *
+ */
+public class ExactSearchTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @param graph
+   * @param moves
+   * @return the graph left after making the given moves
+   */
+  private static Graph play(Graph graph, List<Move> moves) {
+    for (Move move : moves) {
+      graph = graph.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    return graph;
+  }
+
+  /**
+   * Breadth first search over the colors of the nodes that tries every color
+   * on every region, not just the colors of its neighbors
+   * @param graph connected graph
+   * @return the length of the shortest solution
+   */
+  private static int getShortestLength(Graph graph) {
+    short[][] edges = graph.getEdges();
+    Set<String> seen = Sets.newHashSet();
+    List<byte[]> layer = Lists.newArrayList();
+
+    layer.add(graph.getNodes());
+    seen.add(Arrays.toString(graph.getNodes()));
+
+    for (int length = 0; ; length++) {
+      List<byte[]> nextLayer = Lists.newArrayList();
+
+      for (byte[] colors : layer) {
+        Set<Byte> present = Sets.newHashSet();
+
+        for (byte color : colors) {
+          if (color >= 0) {
+            present.add(color);
+          }
+        }
+
+        if (present.size() == 1) {
+          return length;
+        }
+
+        for (short node = 0; node < colors.length; node++) {
+          for (byte color = 0; colors[node] >= 0
+              && color < graph.getColors().length; color++) {
+            byte[] next = colors.clone();
+            Queue<Short> queue = new ArrayDeque<>();
+
+            next[node] = color;
+            queue.add(node);
+
+            while (!queue.isEmpty()) {
+              short current = queue.remove();
+
+              for (short n : edges[current]) {
+                if (next[n] == colors[node] && next[n] != color) {
+                  next[n] = color;
+                  queue.add(n);
+                }
+              }
+            }
+
+            if (seen.add(Arrays.toString(next))) {
+              nextLayer.add(next);
+            }
+          }
+        }
+      }
+
+      layer = nextLayer;
+    }
+  }
+
+  /**
+   * Only colors of a region's neighbors are tried, which never loses the
+   * shortest solution
+   */
+  @Test
+  public void testNeighborColorsAreEnough() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+
+    for (Graph graph : new Graph[] { puzzles.p1_2, puzzles.p1_6
+        , LowerBoundsTest.createPath() }) {
+      Optional<List<Move>> solution
+          = new ExactSearch(graph).go(new CancellationToken());
+
+      Assert.assertEquals(getShortestLength(graph), solution.get().size());
+      Assert.assertEquals(1, play(graph, solution.get()).getActualNodeCount());
+    }
+  }
+
+  @Test
+  public void testShortestSolutions() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+    Graph[] graphs = { puzzles.p1_2, puzzles.p1_6, puzzles.p2_6, puzzles.p4_6 };
+    int[] lengths = { 2, 3, 4, 5 };
+
+    for (int i = 0; i < graphs.length; i++) {
+      Optional<List<Move>> solution
+          = new ExactSearch(graphs[i]).go(new CancellationToken());
+
+      Assert.assertEquals(lengths[i], solution.get().size());
+      Assert.assertEquals(1
+          , play(graphs[i], solution.get()).getActualNodeCount());
+      Assert.assertFalse(new ExactSearch(graphs[i])
+          .go(lengths[i] - 1, (byte)-1).isPresent());
+    }
+  }
+
+  /**
+   * The conjecture breaker needs moves on more than one part of the board,
+   * which the exact search finds without help
+   */
+  @Test
+  public void testConjectureBreaker() {
+    Graph graph = SearchTest.createConjectureBreaker();
+
+    Optional<List<Move>> solution
+        = new ExactSearch(graph).go(new CancellationToken());
+
+    Assert.assertEquals(6, solution.get().size());
+    Assert.assertEquals(1, play(graph, solution.get()).getActualNodeCount());
+
+    Assert.assertEquals(6, new Search(graph, SolverEngine.EXACT)
+        .go(6).get().size());
+    Assert.assertFalse(new Search(graph, SolverEngine.EXACT)
+        .go(5).isPresent());
+  }
+
+  @Test
+  public void testFinalColor() {
+    Graph graph = new DumbSearchTest().p2_6;
+
+    for (byte finalColor = 0
+        ; finalColor < graph.getColors().length
+        ; finalColor++) {
+      List<Move> solution = new ExactSearch(graph)
+          .go(Integer.MAX_VALUE, finalColor).get();
+      Graph solved = play(graph, solution);
+
+      Assert.assertEquals(1, solved.getActualNodeCount());
+
+      for (byte color : solved.getNodes()) {
+        Assert.assertTrue(color < 0 || color == finalColor);
+      }
+
+      // No solution that changes one region over and over is shorter
+      Assert.assertFalse(new IdaStarSearch(graph)
+          .go(solution.size() - 1, finalColor).isPresent());
+    }
+  }
+
+  @Test
+  public void testLayersOnDisk() throws IOException {
+    DumbSearchTest puzzles = new DumbSearchTest();
+    File directory = folder.newFolder();
+
+    for (Graph graph : new Graph[] { puzzles.p1_6, puzzles.p2_6
+        , puzzles.p4_6, SearchTest.createConjectureBreaker() }) {
+      int length = new ExactSearch(graph).go(new CancellationToken())
+          .get().size();
+      List<Move> solution = new ExactSearch(graph, directory)
+          .go(new CancellationToken()).get();
+
+      Assert.assertEquals(length, solution.size());
+      Assert.assertEquals(1, play(graph, solution).getActualNodeCount());
+
+      for (byte finalColor = 0
+          ; finalColor < graph.getColors().length
+          ; finalColor++) {
+        Assert.assertEquals(
+            new ExactSearch(graph).go(length + 1, finalColor).get().size()
+            , new ExactSearch(graph, directory).go(length + 1, finalColor)
+                .get().size());
+      }
+    }
+
+    // Every file is cleaned up
+    Assert.assertEquals(0, directory.list().length);
+  }
+
+  /**
+   * Giving up is not the same as finding there is no solution
+   */
+  @Test(expected = SearchLimitException.class)
+  public void testGivesUpWhenOutOfRoom() {
+    Graph graph = new DumbSearchTest().p4_6;
+
+    new ExactSearch(graph, 10).go(new CancellationToken());
+  }
+
+  @Test(expected = SearchLimitException.class)
+  public void testGivesUpWhenLayersCannotBeWritten() throws IOException {
+    Graph graph = new DumbSearchTest().p4_6;
+
+    // A file cannot hold the directory of layers
+    new ExactSearch(graph, folder.newFile()).go(new CancellationToken());
+  }
+
+}
@@ -0,0 +1,99 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ *
+ */
+public class ExternalFrontierTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<List<Long>> read(ExternalFrontier frontier, int layer
+      , int wordCount) throws IOException {
+    List<List<Long>> result = Lists.newArrayList();
+    long[] state = new long[wordCount];
+
+    try (StateFile.Reader reader = frontier.openLayer(layer)) {
+      while (reader.next(state)) {
+        List<Long> words = Lists.newArrayList();
+
+        for (long word : state) {
+          words.add(word);
+        }
+
+        result.add(words);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Layers come back sorted with repeats and states of earlier layers left
+   * out, however many runs they were sorted in
+   */
+  @Test
+  public void testLayers() throws IOException {
+    int wordCount = 3;
+    Random random = new Random(7);
+    Set<List<Long>> seen = Sets.newHashSet();
+    File directory = folder.newFolder();
+
+    try (ExternalFrontier frontier
+        = new ExternalFrontier(directory, wordCount, 100)) {
+
+      for (int layer = 0; layer < 4; layer++) {
+        Set<List<Long>> expected = Sets.newTreeSet((a, b) -> {
+          for (int w = 0; w < wordCount; w++) {
+            int c = Long.compare(a.get(w), b.get(w));
+
+            if (c != 0) {
+              return c;
+            }
+          }
+
+          return 0;
+        });
+
+        for (int i = 0; i < 1000; i++) {
+          // Few distinct states in the first words so they are shared
+          long[] state = { random.nextInt(4), random.nextInt(50)
+              , random.nextLong() >>> 1 & 0xFF };
+          List<Long> words = Lists.newArrayList(state[0], state[1]
+              , state[2]);
+
+          frontier.add(state);
+
+          if (!seen.contains(words)) {
+            expected.add(words);
+          }
+        }
+
+        Assert.assertEquals(expected.size(), frontier.finishLayer());
+        Assert.assertEquals(Lists.newArrayList(expected)
+            , read(frontier, layer, wordCount));
+
+        seen.addAll(expected);
+      }
+
+      Assert.assertEquals(4, frontier.getLayerCount());
+    }
+
+    Assert.assertEquals(0, directory.list().length);
+  }
+
+}
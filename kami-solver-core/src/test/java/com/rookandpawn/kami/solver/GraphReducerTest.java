@@ -0,0 +1,98 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+/**
+ *
+ */
+public class GraphReducerTest {
+
+  /**
+   * @param graph
+   * @param finalColor
+   * @return the length of the shortest solution ending in the given color
+   */
+  private static int getShortestLength(Graph graph, byte finalColor) {
+    for (int length = 0; ; length++) {
+      if (new IdaStarSearch(graph).go(length, finalColor).isPresent()) {
+        return length;
+      }
+    }
+  }
+
+  private static boolean solves(Graph graph, List<Move> moves) {
+    for (Move move : moves) {
+      graph = graph.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    return graph.getActualNodeCount() == 1;
+  }
+
+  /**
+   * A red hub with green and blue leaves and a green and blue triangle hung
+   * off it.  Ending in green, the green leaves and the triangle's green
+   * corner merge for free
+   */
+  @Test
+  public void testLeavesAndTriangles() {
+    Graph graph = Graph.builder()
+        .withNode(1, "red")
+        .withNode(2, "green")
+        .withNode(3, "green")
+        .withNode(4, "blue")
+        .withNode(5, "blue")
+        .withNode(6, "green")
+        .withEdges(1, 2, 3, 4, 5, 6)
+        .withEdge(5, 6)
+        .build();
+
+    byte green = graph.getNodes()[2];
+    Graph reduced = GraphReducer.reduce(graph, green);
+
+    Assert.assertEquals(3, reduced.getActualNodeCount());
+    Assert.assertTrue(reduced.getNodes()[1] >= 0);
+    Assert.assertTrue(reduced.getNodes()[4] >= 0);
+    Assert.assertTrue(reduced.getNodes()[5] >= 0);
+
+    for (short node = 0; node < reduced.getNodes().length; node++) {
+      if (reduced.getNodes()[node] < 0) {
+        continue;
+      }
+
+      for (short n : reduced.getEdges()[node]) {
+        Assert.assertTrue(reduced.getNodes()[n] >= 0);
+      }
+    }
+
+    // Without a final color nothing can be left out
+    Assert.assertSame(graph, GraphReducer.reduce(graph, (byte)-1));
+  }
+
+  @Test
+  public void testShortestSolutionsAreKept() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+
+    for (Graph graph : new Graph[] { puzzles.p1_2, puzzles.p1_6
+        , puzzles.p2_6, puzzles.p4_6 }) {
+      for (byte finalColor = 0
+          ; finalColor < graph.getColors().length
+          ; finalColor++) {
+        Graph reduced = GraphReducer.reduce(graph, finalColor);
+        int length = getShortestLength(graph, finalColor);
+
+        Assert.assertEquals(length, getShortestLength(reduced, finalColor));
+
+        Optional<List<Move>> solution
+            = new IdaStarSearch(reduced).go(length, finalColor);
+
+        Assert.assertTrue(solves(graph, solution.get()));
+      }
+    }
+  }
+
+}
@@ -1,8 +1,16 @@
 package com.rookandpawn.kami.solver;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
 /**
  *
  */
@@ -27,4 +35,187 @@ public class GraphTest {
 
   }
 
+  @Test
+  public void testZobristHashIgnoresMoveOrder() {
+    Graph start = Graph.builder()
+        .withNode(1, "red")
+        .withNode(2, "green")
+        .withNode(3, "red")
+        .withNode(4, "blue")
+        .withNode(5, "green")
+        .withNode(6, "blue")
+        .withEdge(1, 2)
+        .withEdge(2, 3)
+        .withEdge(3, 4)
+        .withEdge(4, 5)
+        .withEdge(5, 6)
+        .build();
+
+    Graph first = start
+        .changeNodeColor((short)2, "red")
+        .changeNodeColor((short)5, "blue");
+
+    Graph second = start
+        .changeNodeColor((short)5, "blue")
+        .changeNodeColor((short)2, "red");
+
+    Assert.assertEquals(first.getZobristHash(), second.getZobristHash());
+    Assert.assertNotEquals(start.getZobristHash(), first.getZobristHash());
+
+    Graph other = start
+        .changeNodeColor((short)2, "red")
+        .changeNodeColor((short)4, "green");
+
+    Assert.assertNotEquals(first.getZobristHash(), other.getZobristHash());
+  }
+
+  /**
+   * Build a checkerboard of single cell nodes, which is too large for bit
+   * masks and has every node absorb all of its neighbors when it changes to
+   * their color
+   * @param size
+   * @return
+   */
+  private Graph createCheckerboard(int size) {
+    Graph.Builder builder = Graph.builder();
+
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        builder.withNode(y * size + x, (x + y) % 2 == 0 ? "red" : "blue");
+      }
+    }
+
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        if (x + 1 < size) {
+          builder.withEdge(y * size + x, y * size + x + 1);
+        }
+        if (y + 1 < size) {
+          builder.withEdge(y * size + x, (y + 1) * size + x);
+        }
+      }
+    }
+
+    return builder.build();
+  }
+
+  @Test
+  public void testChangeColorMergesNeighborhoods() {
+    Graph start = createCheckerboard(20);
+
+    Assert.assertNull(start.getEdgeMasks());
+
+    Graph graph = start
+        .changeNodeColor((short)210, "blue")
+        .changeNodeColor((short)189, "blue");
+
+    byte[] nodes = graph.getNodes();
+    short[][] edges = graph.getEdges();
+
+    for (short node = 0; node < nodes.length; node++) {
+      if (nodes[node] < 0) {
+        Assert.assertNull(edges[node]);
+        continue;
+      }
+
+      Set<Short> expected = Sets.newHashSet();
+
+      for (short n : edges[node]) {
+        Assert.assertTrue(nodes[n] >= 0);
+        Assert.assertTrue("duplicate " + n + " next to " + node
+            , expected.add(n));
+        Assert.assertTrue(contains(edges[n], node));
+      }
+    }
+
+    // 210 took in 190, 209, 211 and 230, then 189 took in 169, 188 and 210
+    Assert.assertEquals(-1, nodes[210]);
+    Assert.assertEquals(Sets.newHashSet((short)149, (short)168, (short)170
+        , (short)187, (short)191, (short)208, (short)212, (short)229
+        , (short)231, (short)250)
+        , toSet(edges[189]));
+    Assert.assertEquals(400 - 4 - 3, graph.getActualNodeCount());
+  }
+
+  @Test
+  public void testChangeColorOnlyAllocatesNewGraph() {
+    java.lang.management.ThreadMXBean bean
+        = ManagementFactory.getThreadMXBean();
+
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+    com.sun.management.ThreadMXBean allocations
+        = (com.sun.management.ThreadMXBean)bean;
+
+    Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    long threadId = Thread.currentThread().getId();
+    Graph start = createCheckerboard(20);
+    List<Object> kept = Lists.newArrayList();
+
+    for (int round = 0; round < 3; round++) {
+      kept.clear();
+
+      long changeBytes = 0;
+      long copyBytes = 0;
+
+      for (short node = 0; node < start.getNodes().length; node++) {
+        byte color = (byte)(1 - start.getNodes()[node]);
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        Graph result = start.changeNodeColor(node, color);
+        long after = allocations.getThreadAllocatedBytes(threadId);
+
+        kept.add(result);
+        changeBytes += after - before;
+
+        // Allocate the arrays the new graph can't share with the old one
+        before = allocations.getThreadAllocatedBytes(threadId);
+
+        kept.add(result.getNodes().clone());
+        kept.add(result.getEdges().clone());
+        kept.add(new short[start.getColors().length]);
+
+        for (short n = 0; n < result.getEdges().length; n++) {
+          short[] row = result.getEdges()[n];
+
+          if (row != null && row != start.getEdges()[n]) {
+            kept.add(row.clone());
+          }
+        }
+
+        after = allocations.getThreadAllocatedBytes(threadId);
+        copyBytes += after - before;
+      }
+
+      // Anything beyond the graph object itself would be boxing or sets
+      long overhead = (changeBytes - copyBytes) / start.getNodes().length;
+
+      Assert.assertTrue("allocated " + overhead + " extra bytes per change"
+          , overhead < 128);
+    }
+  }
+
+  private static boolean contains(short[] row, short node) {
+    for (short n : row) {
+      if (n == node) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static Set<Short> toSet(short[] row) {
+    Set<Short> result = Sets.newHashSet();
+
+    for (short n : row) {
+      result.add(n);
+    }
+
+    return result;
+  }
+
 }
@@ -0,0 +1,79 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+/**
+ *
+ */
+public class LazySmpSearchTest {
+
+  @Test
+  public void testWorkersFindSolution() {
+    Graph graph = SearchTest.createConjectureBreaker();
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      LazySmpSearch search = new LazySmpSearch(graph, pool);
+
+      Assert.assertFalse(search.go(5).isPresent());
+
+      Optional<List<Move>> solution = search.go(6);
+
+      Assert.assertTrue(solution.isPresent());
+      Assert.assertEquals(6, solution.get().size());
+
+      for (Move move : solution.get()) {
+        graph = graph.changeNodeColor(move.getNode(), move.getColorIndex());
+      }
+
+      Assert.assertEquals(1, graph.getActualNodeCount());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A state that took more moves to rule out is kept over a newer one that
+   * lands in the same slot
+   */
+  @Test
+  public void testTableKeepsMostWork() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+    TranspositionTable table = new TranspositionTable(0);
+
+    table.storeUnsolvable(puzzles.p1_6, (byte)-1, 1, 4);
+    table.storeUnsolvable(puzzles.p2_6, (byte)-1, 0, 2);
+
+    Assert.assertTrue(table.isKnownUnsolvable(puzzles.p1_6, (byte)-1, 1, 4));
+    Assert.assertFalse(table.isKnownUnsolvable(puzzles.p2_6, (byte)-1, 0, 2));
+
+    table.storeUnsolvable(puzzles.p2_6, (byte)-1, 2, 4);
+
+    Assert.assertFalse(table.isKnownUnsolvable(puzzles.p1_6, (byte)-1, 1, 4));
+    Assert.assertTrue(table.isKnownUnsolvable(puzzles.p2_6, (byte)-1, 2, 4));
+  }
+
+  @Test
+  public void testChildTokens() {
+    CancellationToken parent = new CancellationToken();
+    CancellationToken child = parent.createChild();
+
+    child.cancel();
+
+    Assert.assertFalse(parent.isCancelled());
+
+    CancellationToken other = parent.createChild();
+
+    parent.cancel();
+
+    Assert.assertTrue(other.isCancelled());
+  }
+
+}
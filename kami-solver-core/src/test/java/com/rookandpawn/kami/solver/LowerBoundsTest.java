@@ -0,0 +1,94 @@
+package com.rookandpawn.kami.solver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class LowerBoundsTest {
+
+  /**
+   * A path of nine nodes in three colors that mirrors around its middle, so
+   * changing the middle node takes two nodes at a time
+   */
+  static Graph createPath() {
+    int[] colors = { 0, 1, 2, 1, 0 };
+    Graph.Builder builder = Graph.builder();
+
+    for (int node = 0; node < 9; node++) {
+      builder.withNode(node, "c" + colors[Math.abs(node - 4)]);
+
+      if (node > 0) {
+        builder.withEdge(node, node - 1);
+      }
+    }
+
+    return builder.build();
+  }
+
+  @Test
+  public void testGraphBounds() {
+    Graph graph = createPath();
+
+    Assert.assertEquals(2, LowerBounds.getColorBound(graph, (byte)-1));
+    Assert.assertEquals(2, LowerBounds.getColorBound(graph
+        , graph.getNodes()[0]));
+    Assert.assertEquals(4, LowerBounds.getDiameterBound(graph));
+    Assert.assertEquals(4, LowerBounds.forGraph(graph, (byte)-1));
+
+    // Merging the middle three nodes shortens the path by two
+    Graph merged = graph.changeNodeColor((short)4, graph.getNodes()[3]);
+
+    Assert.assertEquals(7, merged.getActualNodeCount());
+    Assert.assertEquals(3, LowerBounds.getDiameterBound(merged));
+  }
+
+  /**
+   * No bound is ever more than the shortest solution
+   */
+  @Test
+  public void testBoundsAreAdmissible() {
+    DumbSearchTest puzzles = new DumbSearchTest();
+
+    for (Graph graph : new Graph[] { createPath(), puzzles.p1_2
+        , puzzles.p1_6, puzzles.p2_6, puzzles.p4_6 }) {
+      int length = new DumbSearch(graph).go().size();
+
+      Assert.assertTrue(LowerBounds.forGraph(graph, (byte)-1) <= length);
+
+      LowerBounds bounds = new LowerBounds(graph);
+      FastGraph fastGraph = new FastGraph(graph);
+
+      for (short node = 0; node < graph.getNodes().length; node++) {
+        if (graph.getNodes()[node] < 0) {
+          continue;
+        }
+
+        int bound = bounds.getRegionBound(graph.getNodes(), node, (byte)-1);
+
+        Assert.assertFalse(bound > 0 && fastGraph.findSolution(node
+            , new byte[bound - 1], (byte)-1, () -> false));
+      }
+    }
+  }
+
+  /**
+   * Too few moves are turned down without searching
+   */
+  @Test
+  public void testSearchGivesUpEarly() {
+    Graph graph = createPath();
+    CancellationToken token = new CancellationToken() {
+      @Override
+      public boolean isCancelled() {
+        Assert.fail("Searched a graph that is out of reach");
+        return true;
+      }
+    };
+
+    Assert.assertFalse(new Search(graph).go(3, token).isPresent());
+    Assert.assertTrue(new Search(graph).go(4).isPresent());
+  }
+
+}
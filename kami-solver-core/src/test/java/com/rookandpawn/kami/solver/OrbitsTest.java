@@ -0,0 +1,123 @@
+package com.rookandpawn.kami.solver;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ *
+ */
+public class OrbitsTest {
+
+  private static final String[] COLORS = { "a", "b", "c", "d" };
+
+  /**
+   * A 5x5 grid colored by distance from the middle row and column, so every
+   * rotation and mirroring of the board gives the same graph
+   * @param cornerColor color of the top left corner or -1 to keep it
+   * @return
+   */
+  static Graph createDiamond(int cornerColor) {
+    Graph.Builder builder = Graph.builder();
+
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 5; col++) {
+        int color = (Math.min(row, 4 - row) + Math.min(col, 4 - col)) % 3;
+
+        if (row == 0 && col == 0 && cornerColor >= 0) {
+          color = cornerColor;
+        }
+
+        builder.withNode(row * 5 + col, COLORS[color]);
+
+        if (col > 0) {
+          builder.withEdge(row * 5 + col, row * 5 + col - 1);
+        }
+        if (row > 0) {
+          builder.withEdge(row * 5 + col, (row - 1) * 5 + col);
+        }
+      }
+    }
+
+    return builder.build();
+  }
+
+  private static int countOrbits(Graph graph, Orbits orbits) {
+    Set<Short> representatives = Sets.newHashSet();
+
+    for (short node = 0; node < graph.getNodes().length; node++) {
+      if (graph.getNodes()[node] >= 0) {
+        representatives.add(orbits.getRepresentative(node));
+      }
+    }
+
+    return representatives.size();
+  }
+
+  @Test
+  public void testSymmetricBoard() {
+    Graph graph = createDiamond(-1);
+    Orbits orbits = Orbits.of(graph);
+
+    Assert.assertEquals(6, countOrbits(graph, orbits));
+
+    for (short node = 0; node < graph.getNodes().length; node++) {
+      short representative = orbits.getRepresentative(node);
+
+      Assert.assertTrue(orbits.isRepresentative(representative));
+      Assert.assertEquals(graph.getNodes()[node]
+          , graph.getNodes()[representative]);
+      Assert.assertEquals(graph.getEdges()[node].length
+          , graph.getEdges()[representative].length);
+    }
+
+    // Corners, edge middles and the middle of the board
+    Assert.assertEquals(orbits.getRepresentative((short)0)
+        , orbits.getRepresentative((short)24));
+    Assert.assertEquals(orbits.getRepresentative((short)2)
+        , orbits.getRepresentative((short)10));
+    Assert.assertNotEquals(orbits.getRepresentative((short)0)
+        , orbits.getRepresentative((short)2));
+    Assert.assertNotEquals(orbits.getRepresentative((short)7)
+        , orbits.getRepresentative((short)12));
+  }
+
+  /**
+   * Recoloring one corner leaves only the mirror along the diagonal through
+   * that corner
+   */
+  @Test
+  public void testBrokenSymmetry() {
+    Graph graph = createDiamond(3);
+    Orbits orbits = Orbits.of(graph);
+
+    Assert.assertEquals(15, countOrbits(graph, orbits));
+
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 5; col++) {
+        Assert.assertEquals(
+            orbits.getRepresentative((short)(row * 5 + col))
+            , orbits.getRepresentative((short)(col * 5 + row)));
+      }
+    }
+  }
+
+  @Test
+  public void testAbsentNodes() {
+    Graph graph = createDiamond(-1).changeNodeColor((short)12, (byte)0);
+    Orbits orbits = Orbits.of(graph);
+
+    for (short node = 0; node < graph.getNodes().length; node++) {
+      if (graph.getNodes()[node] < 0) {
+        Assert.assertEquals(-1, orbits.getRepresentative(node));
+      }
+    }
+
+    Assert.assertEquals(orbits.getRepresentative((short)0)
+        , orbits.getRepresentative((short)20));
+  }
+
+}
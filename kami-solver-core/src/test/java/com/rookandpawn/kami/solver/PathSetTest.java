@@ -2,6 +2,7 @@ package com.rookandpawn.kami.solver;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -62,6 +63,115 @@ public class PathSetTest {
         , pathsByEndNodes.get((short)5));
   }
 
+  /**
+   * Small graphs take the bit mask path and large ones the breadth first
+   * search path, and both have to give grid distances on a grid
+   */
+  @Test
+  public void testGridDistances() {
+    for (int size : new int[] { 7, 11 }) {
+      Graph.Builder builder = Graph.builder();
+
+      for (int row = 0; row < size; row++) {
+        for (int col = 0; col < size; col++) {
+          int id = row * size + col;
+
+          builder.withNode(id, Integer.toString((row + 2 * col) % 3));
+
+          if (col > 0) {
+            builder.withEdge(id, id - 1);
+          }
+          if (row > 0) {
+            builder.withEdge(id, id - size);
+          }
+        }
+      }
+
+      PathSet paths = new PathSet(builder.build());
+
+      for (int from = 0; from < size * size; from++) {
+        for (int to = 0; to < size * size; to++) {
+          int expected = Math.abs(from / size - to / size)
+              + Math.abs(from % size - to % size);
+
+          Assert.assertEquals(expected
+              , paths.getDistance((short)from, (short)to));
+        }
+      }
+
+      int middle = size / 2 * size + size / 2;
+
+      Assert.assertEquals(2 * (size - 1), paths.getMaxPathLength());
+      Assert.assertEquals(middle, paths.getCenterNode());
+      Assert.assertEquals(size - 1
+          , paths.getMaxDistanceFrom((short)middle));
+      Assert.assertEquals(size * size - 1
+          , paths.getAllShortestPathsFrom((short)middle).size());
+    }
+  }
 
+  /**
+   * Updating a parent's paths after a move has to give the same answers as
+   * calculating the paths of the new graph from scratch
+   */
+  @Test
+  public void testIncrementalMatchesFull() {
+    Random random = new Random(7);
+
+    for (int size : new int[] { 6, 10 }) {
+      Graph.Builder builder = Graph.builder();
+
+      for (int row = 0; row < size; row++) {
+        for (int col = 0; col < size; col++) {
+          int id = row * size + col;
+
+          builder.withNode(id, Integer.toString(random.nextInt(4)));
+
+          if (col > 0) {
+            builder.withEdge(id, id - 1);
+          }
+          if (row > 0) {
+            builder.withEdge(id, id - size);
+          }
+        }
+      }
+
+      Graph graph = builder.build().getSubGraphs().get(0);
+      PathSet paths = new PathSet(graph);
+
+      while (graph.getActualNodeCount() > 1) {
+        short node;
+
+        do {
+          node = (short)random.nextInt(graph.getNodes().length);
+        } while (graph.getNodes()[node] < 0);
+
+        short neighbor = graph.getEdges()[node][0];
+
+        graph = graph.changeNodeColor(node, graph.getNodes()[neighbor]);
+        paths = new PathSet(paths, node, graph);
+
+        PathSet expected = new PathSet(graph);
+
+        for (short from = 0; from < graph.getNodes().length; from++) {
+          for (short to = 0; to < graph.getNodes().length; to++) {
+            Assert.assertEquals(expected.getDistance(from, to)
+                , paths.getDistance(from, to));
+          }
+
+          if (graph.getNodes()[from] >= 0) {
+            Assert.assertEquals(expected.getMaxDistanceFrom(from)
+                , paths.getMaxDistanceFrom(from));
+          }
+        }
+
+        Assert.assertEquals(expected.getMaxPathLength()
+            , paths.getMaxPathLength());
+        Assert.assertEquals(expected.getCenterNode(), paths.getCenterNode());
+        Assert.assertEquals(expected.getMinSingleColorMaxPathLength()
+            , paths.getMinSingleColorMaxPathLength());
+      }
+    }
+  }
 
 }
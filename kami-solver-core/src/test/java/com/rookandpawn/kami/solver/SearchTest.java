@@ -1,11 +1,13 @@
 package com.rookandpawn.kami.solver;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 
 /**
  *
@@ -20,6 +22,259 @@ public class SearchTest {
   @Test
   public void testConjectureBreaker() {
 
+    Graph graph = createConjectureBreaker();
+
+    Optional<List<Move>> solution = new Search(graph).go(6);
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(6, solution.get().size());
+
+  }
+
+  /**
+   * Extra moves are still needed when each connected graph is solved by the
+   * IDA* search, since it changes the color of a single starting node too
+   */
+  @Test
+  public void testConjectureBreakerWithIdaStar() {
+    Graph graph = createConjectureBreaker();
+
+    Optional<List<Move>> solution
+        = new Search(graph, SolverEngine.IDA_STAR).go(6);
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(6, solution.get().size());
+  }
+
+  @Test
+  public void testConjectureBreakerInParallel() {
+    Graph graph = createConjectureBreaker();
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      Optional<List<Move>> solution
+          = new Search(graph, SolverEngine.DUMB, pool).go(6);
+
+      Assert.assertTrue(solution.isPresent());
+      Assert.assertEquals(6, solution.get().size());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSpeculativePasses() {
+    Graph graph = createConjectureBreaker();
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      Search search = new Search(graph, SolverEngine.DUMB, pool);
+
+      search.setPassesAtOnce(3);
+
+      Assert.assertFalse(search.go(5).isPresent());
+      Assert.assertEquals(6, search.go(6).get().size());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testTrivialDisjointGraph() {
+    Graph graph = Graph.builder()
+        .withNode(1, "a")
+        .withNode(2, "b")
+        .build();
+
+    Optional<List<Move>> solution = new Search(graph).go(1);
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(1, solution.get().size());
+  }
+
+  /**
+   * Each subgraph alone is shortest with a different final color, but they
+   * have to share one
+   */
+  @Test
+  public void testDisjointGraphsShareFinalColor() {
+    Graph graph = Graph.builder()
+        .withNode(1, "p")
+        .withNode(2, "y")
+        .withNode(3, "p")
+        .withNode(4, "y")
+        .withNode(5, "p")
+        .withNode(6, "y")
+        .withNode(7, "p")
+        .withEdges(1, 2)
+        .withEdges(2, 3)
+        .withEdges(4, 5)
+        .withEdges(5, 6)
+        .build();
+
+    Assert.assertFalse(new Search(graph).go(2).isPresent());
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      for (Search search : new Search[] {
+          new Search(graph), new Search(graph, SolverEngine.DUMB, pool) }) {
+        Optional<List<Move>> solution = search.go(4);
+
+        Assert.assertTrue(solution.isPresent());
+        Assert.assertEquals(3, solution.get().size());
+
+        Graph solved = graph;
+
+        for (Move move : solution.get()) {
+          solved = solved.changeNodeColor(move.getNode()
+              , move.getColorIndex());
+        }
+
+        for (Graph subGraph : solved.getSubGraphs()) {
+          Assert.assertEquals(1, subGraph.getActualNodeCount());
+        }
+
+        Assert.assertEquals(1, countColors(solved));
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * The same island twice only needs to be solved once, but the solution has
+   * to change both islands
+   */
+  @Test
+  public void testRepeatedIslands() {
+    Graph.Builder builder = Graph.builder();
+
+    for (int offset : new int[] { 0, 20 }) {
+      builder.withNode(offset + 1, "p")
+          .withNode(offset + 2, "y")
+          .withNode(offset + 3, "r")
+          .withNode(offset + 4, "y")
+          .withEdges(offset + 1, offset + 2, offset + 4)
+          .withEdges(offset + 3, offset + 2, offset + 4);
+    }
+
+    Graph graph = builder.build();
+
+    Optional<List<Move>> solution = new Search(graph).go(4);
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(4, solution.get().size());
+
+    Graph solved = graph;
+
+    for (Move move : solution.get()) {
+      solved = solved.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    Assert.assertEquals(2, solved.getActualNodeCount());
+    Assert.assertEquals(1, countColors(solved));
+  }
+
+  /**
+   * Each island is missing most of the colors, and the last one looks the
+   * same with its two colors swapped, so most final colors are solved by
+   * swapping colors in the solution of another one
+   */
+  @Test
+  public void testEquivalentFinalColors() {
+    Graph graph = Graph.builder()
+        .withNode(1, "a")
+        .withNode(2, "b")
+        .withNode(3, "a")
+        .withNode(4, "c")
+        .withNode(5, "d")
+        .withNode(6, "c")
+        .withNode(7, "e")
+        .withNode(8, "a")
+        .withNode(9, "e")
+        .withEdges(2, 1, 3)
+        .withEdges(5, 4, 6)
+        .withEdge(8, 9)
+        .build();
+
+    Assert.assertFalse(new Search(graph).go(4).isPresent());
+
+    Optional<List<Move>> solution = new Search(graph).go(5);
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(5, solution.get().size());
+
+    Graph solved = graph;
+
+    for (Move move : solution.get()) {
+      solved = solved.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    Assert.assertEquals(4, solved.getActualNodeCount());
+    Assert.assertEquals(1, countColors(solved));
+  }
+
+  @Test
+  public void testCancelledSearchFindsNothing() {
+    Graph graph = createConjectureBreaker();
+
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+
+    Search search = new Search(graph);
+
+    Assert.assertFalse(search.go(6, token).isPresent());
+
+    // Nothing learned from the cancelled search may hide the real solution
+    Optional<List<Move>> solution = search.go(6);
+
+    Assert.assertTrue(solution.isPresent());
+  }
+
+  @Test
+  public void testAnytimeReportsImprovingSolutions() {
+    Graph graph = createConjectureBreaker();
+
+    List<Integer> solutionSizes = Lists.newArrayList();
+
+    Optional<List<Move>> solution = new Search(graph).goAnytime(7
+        , new CancellationToken()
+        , s -> solutionSizes.add(s.size()));
+
+    Assert.assertTrue(solution.isPresent());
+    Assert.assertEquals(6, solution.get().size());
+    Assert.assertFalse(solutionSizes.isEmpty());
+    Assert.assertEquals(6, (int)solutionSizes.get(solutionSizes.size() - 1));
+
+    for (int i = 1; i < solutionSizes.size(); i++) {
+      Assert.assertTrue(solutionSizes.get(i) < solutionSizes.get(i - 1));
+    }
+  }
+
+  private static int countColors(Graph graph) {
+    boolean[] present = new boolean[graph.getColors().length];
+    int result = 0;
+
+    for (byte color : graph.getNodes()) {
+      if (color >= 0 && !present[color]) {
+        present[color] = true;
+        result++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return a graph that cannot be solved with 6 moves by changing the color
+   * of a single starting node
+   */
+  static Graph createConjectureBreaker() {
+
     String p = "purple";
     String y = "yellow";
     String r = "red";
@@ -49,25 +304,7 @@ public class SearchTest {
         .withEdge(10, 1)
         .build();
 
-    Optional<List<Move>> solution = new Search(graph).go(6);
-
-    Assert.assertTrue(solution.isPresent());
-    Assert.assertEquals(6, solution.get().size());
-
-  }
-
-  @Test
-  public void testTrivialDisjointGraph() {
-    Graph graph = Graph.builder()
-        .withNode(1, "a")
-        .withNode(2, "b")
-        .build();
-
-    Optional<List<Move>> solution = new Search(graph).go(1);
-
-    Assert.assertTrue(solution.isPresent());
-    Assert.assertEquals(1, solution.get().size());
+    return graph;
   }
-  
 
 }
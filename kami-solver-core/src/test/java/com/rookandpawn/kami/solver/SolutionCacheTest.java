@@ -0,0 +1,150 @@
+package com.rookandpawn.kami.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+
+/**
+ *
+ */
+public class SolutionCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * A ring of five nodes that takes three moves
+   * @param colors color of each node around the ring
+   * @param idOffset amount to add to every node id
+   * @return
+   */
+  private static Graph createRing(String[] colors, int idOffset) {
+    Graph.Builder builder = Graph.builder();
+
+    for (int node = 0; node < colors.length; node++) {
+      builder.withNode(idOffset + node, colors[node]);
+    }
+
+    for (int node = 0; node < colors.length; node++) {
+      builder.withEdge(idOffset + node
+          , idOffset + (node + 1) % colors.length);
+    }
+
+    return builder.build();
+  }
+
+  private static boolean solves(Graph graph, List<Move> moves) {
+    for (Move move : moves) {
+      graph = graph.changeNodeColor(move.getNode(), move.getColorIndex());
+    }
+
+    return graph.getActualNodeCount() == 1;
+  }
+
+  @Test
+  public void testSolutionsSurviveReopening() throws IOException {
+    File file = folder.newFile();
+    Graph graph = createRing(new String[] { "a", "b", "a", "c", "b" }, 0);
+
+    Optional<List<Move>> solution;
+
+    try (SolutionCache cache = new SolutionCache(file)) {
+      Search search = new Search(graph, SolverEngine.EXACT, null, cache);
+
+      Assert.assertFalse(search.go(1).isPresent());
+
+      solution = search.go(4);
+
+      Assert.assertTrue(solution.isPresent());
+    }
+
+    // The same puzzle with its nodes numbered differently and its colors
+    // swapped around
+    Graph other = createRing(new String[] { "c", "b", "a", "c", "a" }, 7);
+
+    try (SolutionCache cache = new SolutionCache(file)) {
+      CanonicalForm form = CanonicalForm.ofColorClasses(other);
+
+      Assert.assertTrue(cache.isKnownUnsolvable(form, 1));
+      Assert.assertFalse(cache.isKnownUnsolvable(form, 2));
+
+      Optional<List<Move>> cached = cache.findSolution(other, form, 4);
+
+      Assert.assertTrue(cached.isPresent());
+      Assert.assertEquals(solution.get().size(), cached.get().size());
+      Assert.assertTrue(solves(other, cached.get()));
+
+      Assert.assertFalse(cache.findSolution(other, form
+          , solution.get().size() - 1).isPresent());
+    }
+  }
+
+  /**
+   * The dumb search misses the four move solution of this tree, which needs a
+   * move at the end of the long branch before flooding from the center.  Its
+   * miss must not stop the exact search from finding it in the same cache
+   */
+  @Test
+  public void testHeuristicMissIsNotRecorded() throws IOException {
+    Graph graph = Graph.builder()
+        .withNode(1, "b")
+        .withNode(2, "c")
+        .withNode(3, "d")
+        .withNode(4, "d")
+        .withNode(5, "e")
+        .withNode(6, "a")
+        .withNode(7, "d")
+        .withEdges(1, 2, 4)
+        .withEdges(2, 3)
+        .withEdges(4, 5)
+        .withEdges(5, 6)
+        .withEdges(6, 7)
+        .build();
+    CanonicalForm form = CanonicalForm.ofColorClasses(graph);
+
+    try (SolutionCache cache = new SolutionCache(folder.newFile())) {
+      Assert.assertFalse(new Search(graph, SolverEngine.DUMB, null, cache)
+          .go(4).isPresent());
+      Assert.assertFalse(cache.isKnownUnsolvable(form, 4));
+
+      Search exact = new Search(graph, SolverEngine.EXACT, null, cache);
+      Optional<List<Move>> solution = exact.go(4);
+
+      Assert.assertTrue(solution.isPresent());
+      Assert.assertTrue(solves(graph, solution.get()));
+
+      Assert.assertFalse(exact.go(3).isPresent());
+      Assert.assertTrue(cache.isKnownUnsolvable(form, 3));
+    }
+  }
+
+  @Test
+  public void testCutShortRecordIsIgnored() throws IOException {
+    File file = folder.newFile();
+    Graph graph = createRing(new String[] { "a", "b", "a", "c", "b" }, 0);
+    CanonicalForm form = CanonicalForm.ofColorClasses(graph);
+
+    try (SolutionCache cache = new SolutionCache(file)) {
+      cache.storeUnsolvable(form, 1);
+      cache.storeUnsolvable(form, 2);
+    }
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    try (SolutionCache cache = new SolutionCache(file)) {
+      Assert.assertTrue(cache.isKnownUnsolvable(form, 1));
+      Assert.assertFalse(cache.isKnownUnsolvable(form, 2));
+    }
+  }
+
+}